@@ -5,6 +5,7 @@ import game.State;
 
 public abstract class AI {
     public int team;
+    protected boolean ponder = false; // Keep searching on the opponent's time
 
     protected AI(int team) {
         this.team = team;
@@ -14,4 +15,8 @@ public abstract class AI {
 
     public void update(State state) {
     }
+
+    public void setPonder(boolean ponder) {
+        this.ponder = ponder;
+    }
 }
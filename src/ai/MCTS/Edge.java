@@ -0,0 +1,104 @@
+package ai.MCTS;
+
+import game.Move;
+
+// Binds a move to the node it leads to. Since nodes can be shared between several parents, the statistics of the
+// move itself are kept on the edge, while the node holds the statistics of the position.
+class Edge {
+    private Move move;
+    private Node child;
+    private double prior; // Probability of the move being good, based on the heuristic
+    // UCB stuff
+    private double plays = 0;
+    private double wins = 0; // Wins for the team making the move
+    // RAVE stuff
+    private double ravePlays = 0;
+    private double raveWins = 0;
+
+    Edge(Move move, Node child, double prior) {
+        this.move = move;
+        this.child = child;
+        this.prior = prior;
+    }
+
+    Move getMove() {
+        return move;
+    }
+
+    Node getChild() {
+        return child;
+    }
+
+    double getPlays() {
+        return plays;
+    }
+
+    double getWins() {
+        return wins;
+    }
+
+    // The win ratio of the move. With transpositions the statistics of the child node are used, as they are gathered
+    // from every path leading to the position
+    double getPayOff(boolean useNodeStats) {
+        if (useNodeStats && child.getPlays() > 0) return child.getWins(move.team) / child.getPlays();
+        return wins / plays;
+    }
+
+    // Lower or upper bound of the payoff after a number of extra plays, which are either all lost or all won
+    double getPayOffBound(boolean useNodeStats, double extraPlays, boolean upper) {
+        boolean nodeStats = useNodeStats && child.getPlays() > 0;
+        double n = nodeStats ? child.getPlays() : plays;
+        double w = nodeStats ? child.getWins(move.team) : wins;
+        if (n + extraPlays == 0) return 0;
+        return upper ? (w + extraPlays) / (n + extraPlays) : w / (n + extraPlays);
+    }
+
+    // The AMAF win ratio of the move, or 0.5 if the move has never been played later on in a simulation
+    double getRavePayOff() {
+        return (ravePlays == 0) ? 0.5 : raveWins / ravePlays;
+    }
+
+    // The payoff is blended with the AMAF payoff, weighing the AMAF statistics less as the real plays grow.
+    // The equivalence parameter is the amount of plays at which both weigh the same, and 0 disables RAVE.
+    // Unplayed moves are valued by their AMAF payoff alone. Finally the backed up heuristic value of the child
+    // is mixed in with the given weight, where 0 disables the implicit minimax
+    double getValue(boolean useNodeStats, double raveEquivalence, double minimaxWeight) {
+        double payOff;
+        if (plays == 0) {
+            payOff = (raveEquivalence > 0) ? getRavePayOff() : 0.5;
+        } else {
+            payOff = getPayOff(useNodeStats);
+            if (raveEquivalence > 0 && ravePlays > 0) {
+                double beta = Math.sqrt(raveEquivalence / (3 * plays + raveEquivalence));
+                payOff = (1 - beta) * payOff + beta * getRavePayOff();
+            }
+        }
+        if (minimaxWeight > 0 && child.isEvaluated()) {
+            payOff = (1 - minimaxWeight) * payOff + minimaxWeight * child.getMinimaxValue(move.team);
+        }
+        return payOff;
+    }
+
+    double UCB(double parentPlays, double explorationConstant, boolean useNodeStats, double raveEquivalence,
+               double minimaxWeight) {
+        return getValue(useNodeStats, raveEquivalence, minimaxWeight) +
+                explorationConstant * Math.sqrt(Math.log(parentPlays) / plays);
+    }
+
+    // Exploration is guided by the prior, so moves the heuristic likes are tried first
+    double PUCT(double parentPlays, double explorationConstant, boolean useNodeStats, double raveEquivalence,
+                double minimaxWeight) {
+        return getValue(useNodeStats, raveEquivalence, minimaxWeight) +
+                explorationConstant * prior * Math.sqrt(parentPlays) / (1 + plays);
+    }
+
+    void update(int winner) {
+        plays++;
+        if (move.team == winner) wins++;
+    }
+
+    void updateRave(int winner) {
+        ravePlays++;
+        if (move.team == winner) raveWins++;
+    }
+}
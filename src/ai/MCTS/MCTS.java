@@ -1,109 +1,298 @@
 package ai.MCTS;
 
 import ai.AI;
-import ai.Minimax.Minimax;
+import ai.Minimax.ShallowMinimax;
+import ai.Minimax.Zobrist;
 import game.Logic;
 import game.Move;
+import game.MutableState;
 import game.State;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
 public class MCTS extends AI {
     private boolean debug = true;
     // PARAMETERS
     private long calculationTime;
     private int max_moves = 300;
+    private int cycleWindow = 64; // Amount of recent playout positions checked for repetitions
+    private int cycleRepetitions = 2; // Repetitions of a position before the playout is adjudicated
+    private boolean cycleHeuristic = false; // Adjudicate cycles by score and material instead of as a draw
     private boolean useMinimax = false;
     private int minimaxDepth = 2;
-    private Minimax minimax;
+    private boolean useTranspo = false; // Share nodes between transpositions, making the tree a DAG
+    private boolean useSolver = false; // Prove wins and losses in the tree, MCTS-Solver
+    private boolean useRave = false;
+    private double raveEquivalence = 250; // Amount of plays at which the real and the AMAF statistics weigh equally
+    private double explorationConstant = 1;
+    private boolean usePUCT = false;
+    private double puctConstant = 1.5;
+    private double priorTemperature = 10; // Softmax temperature for the material based priors
+    private boolean useWidening = false;
+    private double wideningConstant = 1; // Amount of edges is wideningConstant * plays^wideningExponent
+    private double wideningExponent = 0.5;
+    private boolean useImplicitMinimax = false;
+    private double minimaxWeight = 0.4; // Weight of the backed up heuristic value against the win ratio
+    private double materialScale = 50; // Material at which the heuristic value is tanh(1)
+    private boolean earlyStop = false; // Stop searching when the best move can no longer change
+    private boolean useTimeBank = false; // Add the time saved by stopping early to the next moves
+    private long timeBank = 0;
+    private long maxTimeBank;
+    private long maxPonderTime = 30000; // Pondering stops by itself after this, if the game is left
+    private Thread ponderThread;
+    private volatile boolean pondering;
+    private int maxNodes = 1000000;
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2; // In bytes
+    private int nodeSize = 500; // Estimated amount of bytes per node, including its state and edges
+    private double pruneRatio = 0.5; // Fraction of the nodes kept when the budget is hit
+    // METRICS
+    private int nodeCount = 0;
+    private int reusedNodes = 0;
+    private int prunedNodes = 0;
+    private int prunes = 0;
+    private int adjudicatedPlayOuts = 0;
+    private ShallowMinimax minimax;
+    private MutableState rolloutState; // Reused by the minimax rollouts
     private int simulationDepth = 0;
+    private HashMap<Long, Node> transTable; // Shares nodes between move orders reaching the same position
+    private Random random = new Random();
     private Node curr_node; // used to keep track of the current game state/node, to save the statistics
 
     public MCTS(State startState, int team, int calculationTime) {
         super(team);
         this.calculationTime = calculationTime;
-        minimax = new Minimax(team, calculationTime);
-        minimax.setUseTranspo(false);
+        this.maxTimeBank = 4L * calculationTime;
+        minimax = new ShallowMinimax();
+        rolloutState = new MutableState(startState);
+        transTable = new HashMap<>();
         curr_node = new Node(startState);
     }
 
     // Main function for MCTS, which consist of all four steps in the algorithm.
     private void run(Node startNode) {
-        Node sim_node = startNode;
-        Node terminalNode = null;
-        int winner = 0; // 1 is red, 2 is black
-        boolean playOut = false;
-        sim_node.incrementPlays();
+        ArrayList<Node> path = new ArrayList<>();
+        ArrayList<Edge> edgePath = new ArrayList<>();
+        HashSet<Node> visited = new HashSet<>(); // Nodes on the path. The graph has cycles, so a node can be met twice
+        Node node = startNode;
+        path.add(node);
+        visited.add(node);
+        // Selection and expansion. Proven nodes are not searched further
+        while (!Logic.gameOver(node.getState())) {
+            if (useSolver && node.updateProof() != 0) break;
+            Edge edge = select(node);
+            if (edge == null) break; // Every move is a proven loss, which the proof below picks up
+            edgePath.add(edge);
+            node = edge.getChild();
+            // Cycle: the position is already on the path, so the playout starts from here without visiting it twice
+            if (!visited.add(node)) break;
+            boolean newNode = node.getPlays() == 0;
+            path.add(node);
+            if (newNode) break;
+        }
+        // Simulation, unless the outcome is already known
+        HashSet<Move> played = useRave ? new HashSet<>() : null; // Moves played after the current node
+        int winner = (useSolver && node.updateProof() != 0) ? node.getProven() : playOut(node.getState(), node.getKey(), played);
+        // Backpropagation
+        for (Node n : path) n.update(winner);
+        for (Edge e : edgePath) e.update(winner);
+        if (useRave) updateRave(path, edgePath, played, winner);
+        if (useSolver) {
+            for (int i = path.size() - 1; i >= 0; i--) {
+                if (path.get(i).updateProof() == 0) break; // Nodes above an open node stay open as well
+            }
+        }
+        if (useImplicitMinimax) {
+            for (int i = path.size() - 1; i >= 0; i--) path.get(i).backupMinimax();
+        }
+    }
+
+    // Evaluates a node with the heuristic, as a value for RED between -1 and 1
+    private void evaluate(Node node) {
+        rolloutState.set(node.getState());
+        double value;
+        if (rolloutState.gameOver()) {
+            value = (rolloutState.getWinner() == RED) ? 1 : -1;
+        } else {
+            int material = rolloutState.getMaterial();
+            value = Math.tanh(((rolloutState.getTurn() == RED) ? material : -material) / materialScale);
+        }
+        node.setMinimaxValue(value);
+    }
+
+    // All moves as first (AMAF): every move of a node which the same team played later on in the simulation
+    // is credited with the result, as if it had been played right away
+    private void updateRave(ArrayList<Node> path, ArrayList<Edge> edgePath, HashSet<Move> played, int winner) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            if (i < edgePath.size()) played.add(edgePath.get(i).getMove());
+            Node n = path.get(i);
+            if (n.getExpandedEdges() == null) continue;
+            for (Edge edge : n.getExpandedEdges()) {
+                if (played.contains(edge.getMove())) edge.updateRave(winner);
+            }
+        }
+    }
+
+    // Picks an unexplored move, otherwise the move with the highest UCB. Moves proven to lose are skipped.
+    // Unexplored moves are picked at random, or by their AMAF statistics if RAVE is used
+    private Edge select(Node node) {
+        ArrayList<Edge> edges = getEdges(node);
+        if (usePUCT) return selectPUCT(node, edges);
+        ArrayList<Edge> unexplored = new ArrayList<>();
+        for (Edge edge : edges) {
+            if (provenLoss(node, edge)) continue;
+            if (edge.getPlays() == 0) unexplored.add(edge);
+        }
+        if (!unexplored.isEmpty()) {
+            Edge bestEdge = unexplored.get(random.nextInt(unexplored.size()));
+            if (useRave) {
+                for (Edge edge : unexplored) {
+                    if (edge.getRavePayOff() > bestEdge.getRavePayOff()) bestEdge = edge;
+                }
+            }
+            return bestEdge;
+        }
+
+        Edge bestEdge = null;
+        double bestUCB = Double.NEGATIVE_INFINITY;
+        for (Edge edge : edges) {
+            if (provenLoss(node, edge)) continue;
+            double ucb = edge.UCB(node.getPlays(), explorationConstant, useTranspo,
+                    useRave ? raveEquivalence : 0, useImplicitMinimax ? minimaxWeight : 0);
+            if (ucb >= bestUCB) {
+                bestUCB = ucb;
+                bestEdge = edge;
+            }
+        }
+        return bestEdge;
+    }
+
+    // Picks the move with the highest PUCT score, where unexplored moves compete through their prior
+    private Edge selectPUCT(Node node, ArrayList<Edge> edges) {
+        Edge bestEdge = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Edge edge : edges) {
+            if (provenLoss(node, edge)) continue;
+            double score = edge.PUCT(node.getPlays(), puctConstant, useTranspo, useRave ? raveEquivalence : 0,
+                    useImplicitMinimax ? minimaxWeight : 0);
+            if (score > bestScore) {
+                bestScore = score;
+                bestEdge = edge;
+            }
+        }
+        return bestEdge;
+    }
+
+    // Returns the edges of a node. With progressive widening, the amount of edges grows with the plays of the node,
+    // and moves proven to lose do not count towards it
+    private ArrayList<Edge> getEdges(Node node) {
+        double temperature = (usePUCT || useWidening) ? priorTemperature : 0;
+        int prevSize = (node.getExpandedEdges() == null) ? 0 : node.getExpandedEdges().size();
+        ArrayList<Edge> edges;
+        if (!useWidening) {
+            edges = node.getEdges(getTransTable(), Integer.MAX_VALUE, temperature);
+        } else {
+            int maxEdges = (int) Math.ceil(wideningConstant * Math.pow(node.getPlays() + 1, wideningExponent));
+            edges = node.getEdges(getTransTable(), maxEdges, temperature);
+            int losses = 0;
+            for (Edge edge : edges) {
+                if (provenLoss(node, edge)) losses++;
+            }
+            if (losses > 0) edges = node.getEdges(getTransTable(), maxEdges + losses, temperature);
+        }
+        nodeCount += edges.size() - prevSize; // Only exact without transpositions, where the table size is used
+        if (useImplicitMinimax) {
+            for (int i = prevSize; i < edges.size(); i++) {
+                if (!edges.get(i).getChild().isEvaluated()) evaluate(edges.get(i).getChild());
+            }
+        }
+        return edges;
+    }
+
+    // Whether the move is proven to lose for the player to move in the given node
+    private boolean provenLoss(Node node, Edge edge) {
+        int proven = edge.getChild().getProven();
+        return useSolver && proven != 0 && proven != node.getState().getTurn();
+    }
+
+    // Plays the game out from the given state without expanding the tree. Returns the winner, or 0 if cut off.
+    // The keys of the recent positions are kept in a ring, and a playout stuck in a cycle is adjudicated early
+    private int playOut(State startState, long startKey, HashSet<Move> played) {
+        State state = startState;
+        long key = startKey;
+        long[] ring = new long[cycleWindow];
         for (int i = 0; i < max_moves; i++) {
+            int repetitions = 0;
+            for (int j = 0; j < Math.min(i, cycleWindow); j++) {
+                if (ring[j] == key) repetitions++;
+            }
+            if (repetitions >= cycleRepetitions) {
+                adjudicatedPlayOuts++;
+                return cycleHeuristic ? adjudicate(state) : 0;
+            }
+            ring[i % cycleWindow] = key;
             if (i > simulationDepth) {
                 simulationDepth = i;
                 if (debug && simulationDepth > (max_moves - 50)) {
                     System.out.println("Cycle spotted!: ");
-                    System.out.println("State: " + sim_node);
-                    System.out.println("Board: " + Arrays.deepToString(sim_node.getState().getBoard()));
-                    System.out.println("Turn: " + sim_node.getState().getTurn());
-                    System.out.println("Legal moves size: " + sim_node.getState().getLegalMoves().size());
-                    System.out.println("State plays: " + sim_node.getPlays());
+                    System.out.println("Board: " + Arrays.deepToString(state.getBoard()));
+                    System.out.println("Turn: " + state.getTurn());
+                    System.out.println("Legal moves size: " + state.getLegalMoves().size());
                     System.out.println("Depth: " + simulationDepth);
                     System.out.println();
                 }
             }
             // Break loop if game is over
-            if (Logic.gameOver(sim_node.getState())) {
-                winner = Logic.getWinner(sim_node.getState());
-                if (terminalNode == null) terminalNode = sim_node;
-                break;
-            }
-            if (playOut) {
-                if (useMinimax) {
-                    // Shallow minimax search as rollout
-                    minimax.setTeam(sim_node.getState().getTurn());
-                    ai.Minimax.Node node = new ai.Minimax.Node(sim_node.getState());
-                    Move move = minimax.minimax(node, minimaxDepth, Integer.MIN_VALUE,
-                            Integer.MAX_VALUE, System.currentTimeMillis()).move;
-
-                    sim_node = sim_node.getNextNode(move);
-                } else {
-                    // Random playout, no node expansion
-                    int r = new Random().nextInt(sim_node.getState().getLegalMoves().size());
-                    Move m = sim_node.getState().getLegalMoves().get(r);
-                    sim_node = sim_node.getNextNode(m);
-                }
-                continue;
-            }
-            ArrayList<Node> unexplored = new ArrayList<>();
-            boolean containsAll = true;
-            for (Node child : sim_node.getChildren()) {
-                if (child.getPlays() == 0) {
-                    containsAll = false;
-                    unexplored.add(child);
-                }
-            }
-            Node bestNode = null;
-            if (containsAll) {
-                double bestUCB = 0.0;
-                for (Node child : sim_node.getChildren()) {
-                    if (child.UCB(1) >= bestUCB) {
-                        bestUCB = child.UCB(1);
-                        bestNode = child;
-                    }
+            if (Logic.gameOver(state)) return Logic.getWinner(state);
+            Move move;
+            if (useMinimax) {
+                // Shallow minimax search as rollout
+                rolloutState.set(state);
+                int best = minimax.search(rolloutState, minimaxDepth);
+                move = null;
+                for (Move m : state.getLegalMoves()) {
+                    if (MutableState.encode(m) == best) move = m;
                 }
             } else {
-                int rIndex = new Random().nextInt(unexplored.size());
-                bestNode = unexplored.get(rIndex);
-                playOut = true;
-                terminalNode = bestNode;
+                // Random playout
+                int r = random.nextInt(state.getLegalMoves().size());
+                move = state.getLegalMoves().get(r);
             }
-            sim_node = bestNode;
+            if (played != null) played.add(move);
+            State next = new State(state);
+            Logic.doTurn(move, next);
+            next.setMove(move);
+            key = Zobrist.update(key, state, move, next);
+            state = next;
+        }
+        return 0;
+    }
+
+    // Picks the winner of a cycling playout: the team with the most points, or else the team with the best material
+    private int adjudicate(State state) {
+        int opponent = (state.getTurn() == RED) ? BLACK : RED;
+        if (state.getScore(RED) != state.getScore(BLACK)) {
+            return (state.getScore(RED) > state.getScore(BLACK)) ? RED : BLACK;
         }
-        // Game is over, backpropagating
-        terminalNode.backPropagate(winner);
+        int material = state.getMaterial();
+        if (material == 0) return 0;
+        return (material > 0) ? state.getTurn() : opponent;
     }
 
     public Move makeMove(State currState) {
-        initialize(curr_node, calculationTime);
+        stopPondering();
+        long budget = calculationTime + (useTimeBank ? timeBank : 0);
+        long timeSpent = initialize(curr_node, budget);
+        if (useTimeBank) {
+            timeBank = Math.min(maxTimeBank, Math.max(0, budget - timeSpent));
+            System.out.println("Time bank: " + timeBank);
+        }
 
         Move move;
         if (currState.getLegalMoves().size() == 1) {
@@ -113,48 +302,258 @@ public class MCTS extends AI {
         return move;
     }
 
-    // Called when MCTS makes its final move based on the move with the highest chances of winning
+    // Called when MCTS makes its final move based on the move with the highest chances of winning.
+    // Proven wins are always preferred, and proven losses are only played if nothing else is left
     private Move getBestMove(Node node) {
         Move bestMove = null;
         double best_val = Integer.MIN_VALUE;
-        for (Node child : node.getChildren()) {
-            double payOff = (child.getPlays() == 0) ? 0 : (child.getWins() / child.getPlays());
-            if (child.getPlays() == 0) {
-                System.out.println("No records for play: " + "oldRow: " + child.getState().getMove().oldRow + ", oldCol: "
-                        + child.getState().getMove().oldCol + ", newRow: " + child.getState().getMove().newRow + ", newCol: " +
-                        child.getState().getMove().newCol + ", board: " + Arrays.deepToString(child.getState().getBoard()));
+        for (Edge edge : getEdges(node)) {
+            Move m = edge.getMove();
+            int proven = useSolver ? edge.getChild().getProven() : 0;
+            if (proven == node.getState().getTurn()) {
+                System.out.println("Proven win for play: " + "oldRow: " + m.oldRow + ", oldCol: " + m.oldCol +
+                        ", newRow: " + m.newRow + ", newCol: " + m.newCol);
+                System.out.println();
+                return m;
+            }
+            double payOff = (proven != 0) ? -1 : (edge.getPlays() == 0) ? 0 : edge.getPayOff(useTranspo);
+            if (edge.getPlays() == 0) {
+                System.out.println("No records for play: " + "oldRow: " + m.oldRow + ", oldCol: "
+                        + m.oldCol + ", newRow: " + m.newRow + ", newCol: " +
+                        m.newCol + ", board: " + Arrays.deepToString(edge.getChild().getState().getBoard()));
             } else {
-                System.out.println("payOff: " + payOff + ", play: " + "oldRow: " + child.getState().getMove().oldRow + ", oldCol: "
-                        + child.getState().getMove().oldCol + ", newRow: " + child.getState().getMove().newRow + ", newCol: " +
-                        child.getState().getMove().newCol + ", plays: " + child.getPlays() + ", wins: " + child.getWins());
+                System.out.println("payOff: " + payOff + ", play: " + "oldRow: " + m.oldRow + ", oldCol: "
+                        + m.oldCol + ", newRow: " + m.newRow + ", newCol: " +
+                        m.newCol + ", plays: " + edge.getPlays() + ", wins: " + edge.getWins());
             }
             if (payOff > best_val) {
                 best_val = payOff;
-                bestMove = child.getState().getMove();
+                bestMove = m;
             }
         }
         System.out.println();
         return bestMove;
     }
 
-    // Main loop of MCTS for statistic gathering
-    private void initialize(Node startNode, long calculationTime) {
+    // Main loop of MCTS for statistic gathering. Returns the time spent
+    private long initialize(Node startNode, long calculationTime) {
         int games = 0;
         simulationDepth = 0;
-        startNode.setParent(null); // Deletes all the previous states by creating floating objects for garbage collection
+        adjudicatedPlayOuts = 0;
+        if (useTranspo) transTable.putIfAbsent(startNode.getKey(), startNode);
         long startTime = System.currentTimeMillis();
         while (System.currentTimeMillis() - startTime < calculationTime) {
             run(startNode);
             games++;
+            // Stop early, when the outcome of the root is known
+            if (useSolver && startNode.getProven() != 0) {
+                System.out.println("Root proven, winner: " + startNode.getProven());
+                break;
+            }
+            if (games % 128 == 0 && getNodeCount() > getNodeBudget()) prune();
+            if (earlyStop && games % 64 == 0) {
+                long elapsed = System.currentTimeMillis() - startTime;
+                double remainingGames = (double) games / Math.max(1, elapsed) * (calculationTime - elapsed);
+                if (decided(startNode, remainingGames)) {
+                    System.out.println("Stopped early, saved: " + (calculationTime - elapsed) + " ms");
+                    break;
+                }
+            }
         }
-        if (System.currentTimeMillis() - startTime > calculationTime + 250) {
+        long timeSpent = System.currentTimeMillis() - startTime;
+        if (timeSpent > calculationTime + 250) {
             System.out.println("Memory issues spotted!");
         }
         System.out.println("Depth: " + simulationDepth);
         System.out.println("Games: " + games);
+        System.out.println("Adjudicated cycles: " + adjudicatedPlayOuts);
+        System.out.println("Nodes: " + getNodeCount() + ", Reused: " + reusedNodes + ", Pruned: " + prunedNodes +
+                " in " + prunes + " prunes");
+        return timeSpent;
+    }
+
+    // Whether the move picked by getBestMove can no longer change within the remaining games. This is the case when
+    // the leader keeps the best payoff, even if it loses all remaining games while any other move wins all of them
+    private boolean decided(Node node, double remainingGames) {
+        if (node.getExpandedEdges() == null || node.hasCandidates()) return false;
+        Edge leader = null;
+        int open = 0;
+        for (Edge edge : node.getExpandedEdges()) {
+            if (provenLoss(node, edge)) continue;
+            open++;
+            if (edge.getPlays() > 0 && (leader == null ||
+                    edge.getPayOff(useTranspo) > leader.getPayOff(useTranspo))) leader = edge;
+        }
+        if (open <= 1) return true;
+        if (leader == null) return false;
+        double leaderMin = leader.getPayOffBound(useTranspo, remainingGames, false);
+        for (Edge edge : node.getExpandedEdges()) {
+            if (edge == leader || provenLoss(node, edge)) continue;
+            if (edge.getPayOffBound(useTranspo, remainingGames, true) >= leaderMin) return false;
+        }
+        return true;
     }
 
+    // Moves the root to the played move, keeping its subtree and the statistics in it. Everything else is freed
     public void update(State state) {
-        curr_node = curr_node.getNextNode(state.getMove());
+        stopPondering();
+        Node next = null;
+        if (useTranspo) next = transTable.get(Zobrist.hash(state));
+        if (next == null) next = curr_node.getNextNode(state.getMove(), getTransTable());
+        if (next == null) next = new Node(state);
+        curr_node = next;
+        collectGarbage();
+        reusedNodes = nodeCount;
+        if (ponder && state.getTurn() != team && !Logic.gameOver(state)) startPondering();
+    }
+
+    // Keeps searching from the current root while the opponent thinks. Since the root is the opponent's position,
+    // all replies are searched, and the subtree of the actual reply is kept by update
+    private void startPondering() {
+        Node root = curr_node;
+        pondering = true;
+        ponderThread = new Thread(() -> {
+            int games = 0;
+            long startTime = System.currentTimeMillis();
+            while (pondering && System.currentTimeMillis() - startTime < maxPonderTime) {
+                if (useSolver && root.getProven() != 0) break;
+                run(root);
+                games++;
+                if (games % 128 == 0 && getNodeCount() > getNodeBudget()) prune();
+            }
+            System.out.println("Pondered games: " + games);
+        });
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    private void stopPondering() {
+        if (ponderThread == null) return;
+        pondering = false;
+        try {
+            ponderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+
+    // Returns all nodes reachable from the root, in breadth first order
+    private ArrayList<Node> getReachableNodes() {
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashSet<Node> visited = new HashSet<>();
+        nodes.add(curr_node);
+        visited.add(curr_node);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).getExpandedEdges() == null) continue;
+            for (Edge edge : nodes.get(i).getExpandedEdges()) {
+                if (visited.add(edge.getChild())) nodes.add(edge.getChild());
+            }
+        }
+        return nodes;
+    }
+
+    // Counts the nodes still reachable from the root, and drops the others from the transposition table,
+    // so they can be garbage collected. Without transpositions the unreachable nodes are freed by themselves
+    private void collectGarbage() {
+        ArrayList<Node> nodes = getReachableNodes();
+        if (useTranspo) {
+            transTable.clear();
+            for (Node node : nodes) transTable.put(node.getKey(), node);
+        }
+        nodeCount = nodes.size();
+    }
+
+    // Prunes the subtrees of the least visited nodes, until only a fraction of the budget is expected to be left
+    private void prune() {
+        int prevCount = getNodeCount();
+        ArrayList<Node> expanded = new ArrayList<>();
+        for (Node node : getReachableNodes()) {
+            if (node != curr_node && node.getExpandedEdges() != null) expanded.add(node);
+        }
+        expanded.sort((n1, n2) -> Double.compare(n1.getPlays(), n2.getPlays()));
+        int excess = prevCount - (int) (getNodeBudget() * pruneRatio);
+        for (Node node : expanded) {
+            if (excess <= 0) break;
+            excess -= node.getExpandedEdges().size();
+            node.prune();
+        }
+        collectGarbage();
+        prunes++;
+        prunedNodes += prevCount - nodeCount;
+    }
+
+    private int getNodeCount() {
+        return useTranspo ? transTable.size() : nodeCount;
+    }
+
+    // The node budget is the lowest of the node limit and the node estimate of the memory budget
+    private int getNodeBudget() {
+        return (int) Math.min(maxNodes, memoryBudget / nodeSize);
+    }
+
+    private HashMap<Long, Node> getTransTable() {
+        return useTranspo ? transTable : null;
+    }
+
+    public void setUseTranspo(boolean transpo) {
+        useTranspo = transpo;
+    }
+
+    public void setUseSolver(boolean solver) {
+        useSolver = solver;
+    }
+
+    public void setUseRave(boolean rave) {
+        useRave = rave;
+    }
+
+    public void setRaveEquivalence(double equivalence) {
+        raveEquivalence = equivalence;
+    }
+
+    public void setUsePUCT(boolean puct) {
+        usePUCT = puct;
+    }
+
+    public void setUseWidening(boolean widening) {
+        useWidening = widening;
+    }
+
+    public void setUseImplicitMinimax(boolean implicitMinimax) {
+        useImplicitMinimax = implicitMinimax;
+    }
+
+    public void setMinimaxWeight(double weight) {
+        minimaxWeight = weight;
+    }
+
+    public void setUseMinimax(boolean useMinimax) {
+        this.useMinimax = useMinimax;
+    }
+
+    // Depth of the minimax rollouts, between 1 and ShallowMinimax.MAX_DEPTH
+    public void setMinimaxDepth(int depth) {
+        minimaxDepth = depth;
+    }
+
+    public void setCycleHeuristic(boolean heuristic) {
+        cycleHeuristic = heuristic;
+    }
+
+    public void setEarlyStop(boolean earlyStop) {
+        this.earlyStop = earlyStop;
+    }
+
+    public void setUseTimeBank(boolean timeBank) {
+        useTimeBank = timeBank;
+    }
+
+    public void setMaxNodes(int nodes) {
+        maxNodes = nodes;
+    }
+
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
     }
 }
@@ -1,46 +1,46 @@
 package ai.MCTS;
 
+import ai.Minimax.Zobrist;
 import game.Logic;
 import game.Move;
 import game.State;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
 
 class Node {
     private State state;
-    private ArrayList<Node> children;
+    private long key;
+    private ArrayList<Edge> edges;
+    private ArrayList<Candidate> candidates; // Moves not added as edges yet, ordered by prior
     // UCB stuff
     private double plays = 0;
-    private double wins = 0;
-    private Node parent;
+    private double[] wins = new double[3]; // Indexed by team, as a shared node can be entered by both teams
+    // Solver stuff
+    private int proven = 0; // The team which is proven to win from this state, or 0 if still open
+    // Implicit minimax stuff
+    private double minimaxValue = 0; // Heuristic value for RED between -1 and 1, backed up with max/min
+    private boolean evaluated = false;
 
     // Starting Root state
     public Node(State startState) {
         this.state = new State(startState);
+        this.key = Zobrist.hash(state);
     }
 
     // Non-root state
-    private Node(Node parent, Move m) {
-        this.state = new State(parent.getState());
-        this.parent = parent;
-        Logic.doTurn(m, this.state);
-        this.state.setMove(m);
-    }
-
-    // Duplicate constructor
-    private Node(Node node) {
-        this.state = new State(node.getState());
+    private Node(State state, long key) {
+        this.state = state;
+        this.key = key;
     }
 
-    Node getNextNode(Move m) {
-        if (children == null) {
-            Node node = new Node(this);
-            Logic.doTurn(m, node.getState());
-            node.getState().setMove(m);
-            return node;
-        }
-        for (Node child : children) {
-            if (child.getState().getMove().equals(m)) return child;
+    // Returns the child reached by the given move, expanding the node if needed. Null if the move is not legal here
+    Node getNextNode(Move m, HashMap<Long, Node> transTable) {
+        for (Edge edge : getEdges(transTable, Integer.MAX_VALUE, 0)) {
+            if (edge.getMove().equals(m)) return edge.getChild();
         }
         return null;
     }
@@ -49,46 +49,149 @@ class Node {
         return state;
     }
 
+    long getKey() {
+        return key;
+    }
+
     double getPlays() {
         return plays;
     }
 
-    double getWins() {
-        return wins;
+    double getWins(int team) {
+        return wins[team];
     }
 
-    void incrementPlays() {
-        plays++;
+    // Returns the edges without expanding the node, which is null if it has not been expanded yet
+    ArrayList<Edge> getExpandedEdges() {
+        return edges;
+    }
+
+    // Creates and/or returns the edges to the children of the given state. If a transposition table is given,
+    // children that already exist in the table are shared instead of being created again.
+    // The node is expanded until it has the given amount of edges, adding the moves with the highest prior first.
+    // The priors are a softmax over the material gained by each move, or uniform if the temperature is 0
+    ArrayList<Edge> getEdges(HashMap<Long, Node> transTable, int maxEdges, double priorTemperature) {
+        if (edges == null) initCandidates(priorTemperature);
+        while (edges.size() < maxEdges && !candidates.isEmpty()) {
+            Candidate candidate = candidates.remove(0);
+            long childKey = Zobrist.update(key, state, candidate.move, candidate.state);
+            Node child = (transTable != null) ? transTable.get(childKey) : null;
+            if (child == null) {
+                child = new Node(candidate.state, childKey);
+                if (transTable != null) transTable.put(childKey, child);
+            }
+            edges.add(new Edge(candidate.move, child, candidate.prior));
+        }
+        return edges;
+    }
+
+    // Drops the edges and thereby the subtree of the node, keeping the statistics of the node itself
+    void prune() {
+        edges = null;
+        candidates = null;
     }
 
-    void setParent(Node node) {
-        parent = node;
+    // Whether some moves have not been added as edges yet
+    boolean hasCandidates() {
+        return candidates != null && !candidates.isEmpty();
     }
 
-    // Creates and/or returns a list of new state objects which correspond to the children of the given state.
-    public ArrayList<Node> getChildren() {
-        if (children != null) return children;
-        children = new ArrayList<>();
+    private void initCandidates(double priorTemperature) {
+        edges = new ArrayList<>();
+        candidates = new ArrayList<>();
+        int material = (priorTemperature > 0) ? state.getMaterial() : 0;
+        double sum = 0;
         for (Move m : state.getLegalMoves()) {
-            Node child = new Node(this, m);
-            children.add(child);
+            State childState = new State(state);
+            Logic.doTurn(m, childState);
+            childState.setMove(m);
+            double prior = 1;
+            if (priorTemperature > 0) {
+                // The material is seen from the player to move, which is the opponent unless the turn was passed
+                int childMaterial = (childState.getTurn() == m.team) ? childState.getMaterial() : -childState.getMaterial();
+                prior = Math.exp((childMaterial - material) / priorTemperature);
+            }
+            sum += prior;
+            candidates.add(new Candidate(m, childState, prior));
         }
-        return children;
+        for (Candidate candidate : candidates) candidate.prior /= sum;
+        candidates.sort((c1, c2) -> Double.compare(c2.prior, c1.prior));
     }
 
-    double UCB(double explorationConstant) {
-        double payOff = (wins / plays);
-        return payOff + explorationConstant * Math.sqrt(Math.log(parent.plays) / plays);
+    int getProven() {
+        return proven;
     }
 
-    void backPropagate(int winner) {
-        Node node = this;
-        while (node.parent != null) {
-            node.plays++;
-            if (node.getState().getMove().team == winner) {
-                node.wins++;
+    // Marks the node as proven, if the state is terminal, the player to move has a move to a proven win,
+    // or all moves lead to proven losses. Returns the proven winner, or 0 if the state is still open
+    int updateProof() {
+        if (proven != 0) return proven;
+        if (Logic.gameOver(state)) {
+            proven = Logic.getWinner(state);
+            return proven;
+        }
+        if (edges == null) return 0;
+        int turn = state.getTurn();
+        boolean allProven = true;
+        for (Edge edge : edges) {
+            int childProven = edge.getChild().getProven();
+            if (childProven == turn) {
+                proven = turn;
+                return proven;
             }
-            node = node.parent;
+            if (childProven == 0) allProven = false;
+        }
+        if (allProven && !hasCandidates()) proven = (turn == RED) ? BLACK : RED;
+        return proven;
+    }
+
+    boolean isEvaluated() {
+        return evaluated;
+    }
+
+    void setMinimaxValue(double value) {
+        minimaxValue = value;
+        evaluated = true;
+    }
+
+    // The minimax value for a team, scaled between 0 and 1 like a win ratio
+    double getMinimaxValue(int team) {
+        return ((team == RED) ? 1 + minimaxValue : 1 - minimaxValue) / 2;
+    }
+
+    // Sets the minimax value to the best value among the evaluated children, for the player to move.
+    // Proven nodes take the value of their result
+    void backupMinimax() {
+        if (proven != 0) {
+            setMinimaxValue((proven == RED) ? 1 : -1);
+            return;
+        }
+        if (edges == null) return;
+        boolean max = state.getTurn() == RED;
+        double best = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        for (Edge edge : edges) {
+            Node child = edge.getChild();
+            if (!child.evaluated) continue;
+            best = max ? Math.max(best, child.minimaxValue) : Math.min(best, child.minimaxValue);
+        }
+        if (!Double.isInfinite(best)) setMinimaxValue(best);
+    }
+
+    void update(int winner) {
+        plays++;
+        if (winner != 0) wins[winner]++;
+    }
+
+    // A move which has been evaluated, but not added to the graph yet
+    private static class Candidate {
+        Move move;
+        State state;
+        double prior;
+
+        Candidate(Move move, State state, double prior) {
+            this.move = move;
+            this.state = state;
+            this.prior = prior;
         }
     }
 }
@@ -0,0 +1,345 @@
+/**
+ * This class solves single positions of Kulibrat with a depth-first proof-number search, for score limits too large
+ * for the full tablebase
+ */
+package ai.Minimax.Experimental;
+
+import game.MutableState;
+import game.State;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// Proves whether a team, the attacker, can force a win. Proof and disproof numbers are kept in a transposition table of
+// a fixed size, in buckets of two where the entry with the least work behind it is replaced. Only the positions on the
+// search path are kept otherwise, so the memory is bounded whatever the score limit. A game can go around in circles
+// without anyone scoring, which never wins, so a move back to a position on the path is a disproof. Such a disproof
+// only holds while the positions it went back to are on the path (the graph history interaction problem). Every call
+// on the path has an id, and the path is a stack, so the disproof is stored with the id of the deepest of those calls,
+// and only reused while that call is still on the path, with everything above it. When a position is done, the
+// dependencies on itself are dropped, as the defender can then keep the game from a win by going back to it, but the
+// others still hold. So a dependency keeps the depths of the deepest two calls, and whether there may be more below the
+// second, which then count as every call below it. That is exact up to two calls, and errs on the safe side beyond.
+// Proofs never depend on the path. Keys are exact, from the board, the turn and the scores, so there are no hash
+// collisions. Like the tablebase, this relies on the unplaced pieces following from the board
+public class DfpnSolver {
+    public static final int UNKNOWN = -1; // Result when the node limit is reached first
+    private static final int INF = 100000000;
+    private static final long NO_LOOP = -1;
+    private static final int NO_DEPTH = -1;
+    private static final long NO_DEPENDENCY = dependency(NO_DEPTH, NO_DEPTH, false);
+    private int scoreLimit;
+    private int attacker;
+    private long maxNodes;
+    private MutableState state = new MutableState();
+    private HashMap<Long, Integer> path = new HashMap<>(); // Positions on the search path, by their depth
+    private long[] pathIds = new long[1024]; // Ids of the calls on the search path, by their depth
+    private Frame[] frames = new Frame[1024]; // Scratch arrays of the calls on the search path, by their depth
+    private long calls;
+    // The transposition table, as parallel arrays
+    private long[] keys;
+    private int[] proofs;
+    private int[] disproofs;
+    private long[] loops; // Id of the deepest call a disproof depends on being on the path, or NO_LOOP
+    private long[] dependencies; // The calls a disproof depends on, see dependency()
+    private long[] work; // Nodes searched below the entry
+    private long nodes;
+    private long lookups;
+    private long hits;
+    private long stores;
+    private long overwrites;
+    private long startTime;
+
+    // The table has 2^tableBits entries of 40 bytes
+    public DfpnSolver(int tableBits, long maxNodes) {
+        int size = 1 << tableBits;
+        keys = new long[size];
+        proofs = new int[size];
+        disproofs = new int[size];
+        loops = new long[size];
+        dependencies = new long[size];
+        work = new long[size];
+        this.maxNodes = maxNodes;
+    }
+
+    // The winner with perfect play, 0 for a draw, or UNKNOWN. First proves whether the player to move wins, then whether
+    // the opponent does
+    public int solve(State start) {
+        MutableState root = new MutableState(start);
+        if (root.gameOver()) return root.getWinner();
+        int first = root.getTurn();
+        int second = (first == RED) ? BLACK : RED;
+        int result = prove(root, first);
+        if (result == UNKNOWN || result == 1) return (result == 1) ? first : UNKNOWN;
+        result = prove(root, second);
+        if (result == UNKNOWN) return UNKNOWN;
+        return (result == 1) ? second : 0;
+    }
+
+    // Whether the attacker can force a win: 1 if proved, 0 if disproved, or UNKNOWN
+    public int prove(MutableState root, int attacker) {
+        this.attacker = attacker;
+        scoreLimit = root.getScoreLimit();
+        clearTable();
+        path.clear();
+        nodes = 0;
+        startTime = System.currentTimeMillis();
+        long rootKey = key(root);
+        mid(rootKey, INF - 1, INF - 1);
+        int entry = lookup(rootKey);
+        printStats((attacker == RED) ? "RED" : "BLACK");
+        if (entry != -1 && proofs[entry] == 0) return 1;
+        if (entry != -1 && disproofs[entry] == 0) return 0;
+        return UNKNOWN;
+    }
+
+    // Searches below the position until its proof or disproof number reaches its threshold
+    private void mid(long key, int proofThreshold, int disproofThreshold) {
+        nodes++;
+        long nodesBefore = nodes;
+        if (nodes % 1000000 == 0) printStats("searching");
+        setPosition(key);
+        boolean or = state.getTurn() == attacker;
+        int depth = path.size();
+        if (depth == pathIds.length) {
+            pathIds = Arrays.copyOf(pathIds, depth * 2);
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        if (frames[depth] == null) frames[depth] = new Frame();
+        Frame frame = frames[depth];
+        long[] childKeys = frame.childKeys;
+        int[] terminal = frame.terminal;
+        int count = state.generateMoves(state.getTurn(), frame.moves);
+        for (int i = 0; i < count; i++) {
+            state.makeMove(frame.moves[i]);
+            terminal[i] = state.gameOver() ? ((state.getWinner() == attacker) ? 1 : -1) : 0;
+            if (terminal[i] == 0) childKeys[i] = key(state);
+            state.unmakeMove();
+        }
+        path.put(key, depth);
+        pathIds[depth] = ++calls;
+        int proof;
+        int disproof;
+        long dependency;
+        while (true) {
+            // Collect the numbers of the children. A disproof at an attacker's move needs every child disproved, so
+            // it depends on all calls any of them depends on. At a defender's move one disproved child is enough, so
+            // the one depending on the shallowest calls is used
+            proof = or ? INF : 0;
+            disproof = or ? 0 : INF;
+            dependency = or ? NO_DEPENDENCY : Long.MAX_VALUE;
+            int best = -1;
+            int bestNumber = INF;
+            int secondNumber = INF;
+            int bestProof = 0;
+            int bestDisproof = 0;
+            for (int i = 0; i < count; i++) {
+                int childProof = 1;
+                int childDisproof = 1;
+                long childDependency = NO_DEPENDENCY;
+                Integer loopDepth;
+                if (terminal[i] != 0) {
+                    childProof = (terminal[i] == 1) ? 0 : INF;
+                    childDisproof = (terminal[i] == 1) ? INF : 0;
+                } else if ((loopDepth = path.get(childKeys[i])) != null) {
+                    // Going around in circles never wins
+                    childProof = INF;
+                    childDisproof = 0;
+                    childDependency = dependency(loopDepth, NO_DEPTH, false);
+                } else {
+                    int entry = lookup(childKeys[i]);
+                    if (entry != -1) {
+                        childProof = proofs[entry];
+                        childDisproof = disproofs[entry];
+                        childDependency = dependencies[entry];
+                    }
+                }
+                if (childDisproof == 0) {
+                    dependency = or ? union(dependency, childDependency) : Math.min(dependency, childDependency);
+                }
+                int number = or ? childProof : childDisproof;
+                if (or) {
+                    proof = Math.min(proof, childProof);
+                    disproof = Math.min(INF, disproof + childDisproof);
+                } else {
+                    proof = Math.min(INF, proof + childProof);
+                    disproof = Math.min(disproof, childDisproof);
+                }
+                if (number < bestNumber) {
+                    secondNumber = bestNumber;
+                    bestNumber = number;
+                    best = i;
+                    bestProof = childProof;
+                    bestDisproof = childDisproof;
+                } else if (number < secondNumber) {
+                    secondNumber = number;
+                }
+            }
+            if (proof >= proofThreshold || disproof >= disproofThreshold || nodes >= maxNodes) break;
+
+            // Search the most proving child, until it is no longer the best or the thresholds of this position are hit
+            int childProofThreshold;
+            int childDisproofThreshold;
+            if (or) {
+                childProofThreshold = Math.min(proofThreshold, secondNumber + 1);
+                childDisproofThreshold = Math.min(INF - 1, disproofThreshold - disproof + bestDisproof);
+            } else {
+                childProofThreshold = Math.min(INF - 1, proofThreshold - proof + bestProof);
+                childDisproofThreshold = Math.min(disproofThreshold, secondNumber + 1);
+            }
+            mid(childKeys[best], childProofThreshold, childDisproofThreshold);
+        }
+        path.remove(key);
+        // Only a disproof depends on the path
+        if (disproof != 0) dependency = NO_DEPENDENCY;
+        if (deepest(dependency) == depth) dependency = withoutDeepest(dependency); // Going back to this position
+        long loop = (deepest(dependency) == NO_DEPTH) ? NO_LOOP : pathIds[deepest(dependency)];
+        store(key, proof, disproof, loop, dependency, nodes - nodesBefore + 1);
+    }
+
+    // The calls a disproof depends on, by their depths on the path: the deepest, the second deepest, and whether there
+    // may be more below that. Packed in a long, so the dependency on the fewest and shallowest calls is the smallest
+    private static long dependency(int deepest, int second, boolean more) {
+        return (long) deepest << 32 | (long) (second + 1) << 1 | (more ? 1 : 0);
+    }
+
+    private static int deepest(long dependency) {
+        return (int) (dependency >> 32);
+    }
+
+    private static int second(long dependency) {
+        return (int) ((dependency & 0xFFFFFFFFL) >>> 1) - 1;
+    }
+
+    private static boolean more(long dependency) {
+        return (dependency & 1) != 0;
+    }
+
+    // Every call either depends on. Calls which don't fit in the deepest two are covered by the flag
+    private static long union(long a, long b) {
+        if (deepest(a) < deepest(b)) return union(b, a);
+        int deepest = deepest(a);
+        int fromA = second(a);
+        int fromB = (deepest(b) == deepest) ? NO_DEPTH : deepest(b);
+        int belowB = second(b);
+        int second = Math.max(fromA, Math.max(fromB, belowB));
+        boolean more = more(a) || more(b) || (fromA != NO_DEPTH && fromA != second) ||
+                (fromB != NO_DEPTH && fromB != second) || (belowB != NO_DEPTH && belowB != second);
+        return dependency(deepest, second, more);
+    }
+
+    // Drops the deepest call. If there may be more calls below the second, any call below it is one
+    private static long withoutDeepest(long dependency) {
+        int second = second(dependency);
+        if (!more(dependency)) return dependency(second, NO_DEPTH, false);
+        return dependency(second, second - 1, second - 1 > 0);
+    }
+
+    // The key holds the board code and turn in the low 32 bits, then the scores in 16 bits each
+    private static long key(MutableState state) {
+        return ((long) state.getBoardCode() * 2 + state.getTurn() - 1) | ((long) state.getScore(RED) << 32) |
+                ((long) state.getScore(BLACK) << 48);
+    }
+
+    private void setPosition(long key) {
+        long low = key & 0xFFFFFFFFL;
+        state.set((int) (low / 2), (int) (low % 2) + 1, (int) (key >>> 32 & 0xFFFF), (int) (key >>> 48), scoreLimit);
+    }
+
+    // Made once per depth of the path, instead of on every call
+    private static class Frame {
+        int[] moves = new int[MutableState.MAX_MOVES];
+        long[] childKeys = new long[MutableState.MAX_MOVES];
+        int[] terminal = new int[MutableState.MAX_MOVES]; // 1 if the attacker wins by the move, -1 if it loses, else 0
+    }
+
+    // The index of the position in the table, or -1 if it isn't there, or if its disproof depends on a call which
+    // isn't on the path any more. Positions which aren't there count as 1 and 1
+    private int lookup(long key) {
+        lookups++;
+        int slot = slot(key);
+        for (int i = slot; i <= slot + 1; i++) {
+            if (keys[i] != key || isFree(i)) continue;
+            int loopDepth = deepest(dependencies[i]);
+            if (loops[i] != NO_LOOP && (loopDepth >= path.size() || pathIds[loopDepth] != loops[i])) return -1;
+            hits++;
+            return i;
+        }
+        return -1;
+    }
+
+    private void store(long key, int proof, int disproof, long loop, long dependency, long nodesBelow) {
+        stores++;
+        int slot = slot(key);
+        int target = -1;
+        for (int i = slot; i <= slot + 1; i++) {
+            if (keys[i] == key || isFree(i)) {
+                target = i;
+                break;
+            }
+        }
+        if (target == -1) {
+            target = (work[slot] <= work[slot + 1]) ? slot : slot + 1;
+            overwrites++;
+        }
+        keys[target] = key;
+        proofs[target] = proof;
+        disproofs[target] = disproof;
+        loops[target] = loop;
+        dependencies[target] = dependency;
+        work[target] = nodesBelow;
+    }
+
+    // Both numbers are never 0 in a used entry
+    private boolean isFree(int i) {
+        return proofs[i] == 0 && disproofs[i] == 0;
+    }
+
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) (key & (keys.length - 2));
+    }
+
+    private void clearTable() {
+        for (int i = 0; i < keys.length; i++) {
+            proofs[i] = 0;
+            disproofs[i] = 0;
+        }
+        lookups = 0;
+        hits = 0;
+        stores = 0;
+        overwrites = 0;
+    }
+
+    private void printStats(String stage) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        int used = 0;
+        for (int i = 0; i < keys.length; i++) if (!isFree(i)) used++;
+        System.out.println(stage + ": nodes: " + nodes + ", nodes/sec: " + (nodes * 1000 / elapsed) +
+                ", TT entries used: " + used + "/" + keys.length + " (" + (used * 100L / keys.length) + "%)" +
+                ", TT hits: " + hits + "/" + lookups + ", stores: " + stores + ", overwrites: " + overwrites +
+                ", path: " + path.size() + ". Time spent: " + elapsed);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int scoreLimit = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int tableBits = (args.length > 1) ? Integer.parseInt(args[1]) : 22;
+        long maxNodes = (args.length > 2) ? Long.parseLong(args[2]) : 1000000000; // Nodes per proof before giving up
+        int[] winner = new int[1];
+        // The search recurses once per ply of the path, which can get long
+        Thread thread = new Thread(null, () -> {
+            DfpnSolver solver = new DfpnSolver(tableBits, maxNodes);
+            winner[0] = solver.solve(new State(scoreLimit));
+        }, "df-pn", 1L << 30);
+        thread.start();
+        thread.join();
+        String result = (winner[0] == RED) ? "RED wins" : (winner[0] == BLACK) ? "BLACK wins" :
+                (winner[0] == 0) ? "It is a draw" : "No result within the node limit";
+        System.out.println("Score limit " + scoreLimit + ": " + result);
+    }
+}
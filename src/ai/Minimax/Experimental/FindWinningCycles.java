@@ -1,100 +1,284 @@
 /**
- * This class attempts to find a winning strategy by focing a winning cycle. It fails to find it
+ * This class finds out whether a player can force a winning cycle, where it keeps scoring while the opponent never
+ * does, which wins the game whatever the score limit
  */
 package ai.Minimax.Experimental;
 
-import ai.Minimax.MinimaxPlay;
-import ai.Minimax.Node;
-import ai.Minimax.Zobrist;
-import game.Logic;
-import game.Move;
+import ai.Minimax.Tablebase.PositionIndex;
+import game.MutableState;
 import game.State;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
+import static misc.Globals.BLACK;
 import static misc.Globals.RED;
 
+// Works on the explicit state graph instead of searching. The scores are left out of the positions, so a position is a
+// board and the player to move, numbered by PositionIndex, and an edge records who scores by it. Two extra nodes stand
+// for the games won by RED and by BLACK by locking the board. The edges are kept in compressed arrays, forwards and
+// backwards. A team forces a winning cycle if it can avoid the opponent ever scoring, and score itself infinitely
+// often. The first is a safety game: the positions the opponent can force a point from, its attractor, are left
+// out. The second is a Büchi game on the rest, solved by alternating attractors. A point can only be scored again
+// and again on an edge inside a strongly connected component, found by an iterative Tarjan, so only those count.
+// The graph, the components and every attractor take linear time and memory. The Büchi game repeats the attractors
+// until nothing changes, which only takes a few rounds
 public class FindWinningCycles {
-    private static HashMap<Long, MinimaxPlay> transpoTable = new HashMap<>();
-    private static int team = RED;
+    private static final int NO_SCORE_LIMIT = 1000; // Score limit the positions are set up with, which is never reached
+    private static int size; // Positions, and the two won games
+    private static int redWins;
+    private static int blackWins;
+    private static int[] edgeStart; // Edges of a node are from edgeStart[node] to edgeStart[node + 1]
+    private static int[] edges;
+    private static int[] scorer; // Team which scores by the edge, or 0
+    private static int[] predStart;
+    private static int[] preds;
+    private static int edgeCount;
 
-    private static String iterativeDeepeningMinimax(State state) {
-        int CURR_MAX_DEPTH = 0;
-        boolean done = false;
-        while (!done) {
-            Node simNode = new Node(state);
-            CURR_MAX_DEPTH += 1;
-            HashSet<Long> loops = new HashSet<>();
-            int prevSize = transpoTable.size();
-            MinimaxPlay play = minimax(simNode, loops, CURR_MAX_DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE);
-            System.out.println("CURRENT MAX DEPTH: " + CURR_MAX_DEPTH + ", LOOKUP TABLE SIZE: " + transpoTable.size() +
-                    ", SCORE: " + play.score);
-
-            if (Math.abs(play.score) >= 1) {
-                String player = (team == RED) ? "RED" : "BLACK";
-                String opponent = (player.equals("RED")) ? "BLACK" : "RED";
-                return (play.score >= 1) ? player : opponent;
+    private static void buildGraph() {
+        int positions = PositionIndex.getLayerSize();
+        size = positions + 2;
+        redWins = positions;
+        blackWins = positions + 1;
+        MutableState state = new MutableState();
+        int[] moves = new int[MutableState.MAX_MOVES];
+        // Count the edges first, so they fit in arrays
+        edgeStart = new int[size + 1];
+        for (int p = 0; p < positions; p++) {
+            edgeStart[p + 1] = edgeStart[p] + generateMoves(state, p, moves);
+        }
+        edgeStart[redWins + 1] = edgeStart[redWins] + 1;
+        edgeStart[blackWins + 1] = edgeStart[blackWins] + 1;
+        edgeCount = edgeStart[size];
+        edges = new int[edgeCount];
+        scorer = new int[edgeCount];
+        for (int p = 0; p < positions; p++) {
+            int count = generateMoves(state, p, moves);
+            for (int i = 0; i < count; i++) {
+                int e = edgeStart[p] + i;
+                int team = state.getTurn();
+                state.makeMove(moves[i]);
+                if (state.gameOver()) {
+                    edges[e] = (state.getWinner() == RED) ? redWins : blackWins;
+                } else {
+                    edges[e] = PositionIndex.rank(state);
+                    if (state.getScore(team) > 0) scorer[e] = team;
+                }
+                state.unmakeMove();
             }
-            if (prevSize == transpoTable.size()) {
-                done = true;
+        }
+        // A won game scores for the winner forever
+        edges[edgeStart[redWins]] = redWins;
+        scorer[edgeStart[redWins]] = RED;
+        edges[edgeStart[blackWins]] = blackWins;
+        scorer[edgeStart[blackWins]] = BLACK;
+
+        // Reverse the edges, for the attractors
+        predStart = new int[size + 1];
+        for (int e = 0; e < edgeCount; e++) predStart[edges[e] + 1]++;
+        for (int v = 0; v < size; v++) predStart[v + 1] += predStart[v];
+        preds = new int[edgeCount];
+        int[] fill = new int[size];
+        for (int v = 0; v < size; v++) {
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                preds[predStart[edges[e]] + fill[edges[e]]++] = v;
             }
         }
-        return "None";
     }
 
-    private static MinimaxPlay minimax(Node node, HashSet<Long> loops, int depth, int alpha, int beta) {
-        Move bestMove = null;
-        int bestScore = (node.getState().getTurn() == team) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
-        int score;
-        if (loops.contains(node.getHashCode())) {
-            int eval = (node.getState().getTurn() == team) ? 1 : -1;
-            return new MinimaxPlay(bestMove, eval, depth);
-        }
+    // Sets up the position and writes its moves. Positions which are over, or where the player to move can't move,
+    // never occur in a game, and get no edges
+    private static int generateMoves(MutableState state, int p, int[] moves) {
+        PositionIndex.unrank(p, state, 0, 0, NO_SCORE_LIMIT);
+        if (state.gameOver() || !state.hasMoves(state.getTurn())) return 0;
+        return state.generateMoves(state.getTurn(), moves);
+    }
+
+    private static int owner(int v) {
+        if (v == redWins) return RED;
+        if (v == blackWins) return BLACK;
+        return PositionIndex.getTurn(v);
+    }
 
-        if (Logic.gameOver(node.getState()) || depth == 0) {
-            return new MinimaxPlay(bestMove, 0, depth);
+    // The nodes of the arena from which the team can force reaching the target, by staying inside the arena
+    private static boolean[] attractor(int team, boolean[] arena, boolean[] target) {
+        boolean[] attr = new boolean[size];
+        int[] remaining = new int[size]; // Edges inside the arena not known to lead into the attractor yet
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int v = 0; v < size; v++) {
+            if (!arena[v]) continue;
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                if (arena[edges[e]]) remaining[v]++;
+            }
+            if (target[v]) {
+                attr[v] = true;
+                queue.add(v);
+            }
         }
-        State state = new State(node.getState());
-        for (int i = 0; i < state.getScoreLimit() - state.getScore(state.getTurn()); i++) {
-            state.addPoint(state.getTurn());
-            Node addPoint = new Node(state);
-            loops.add(addPoint.getHashCode());
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            for (int i = predStart[v]; i < predStart[v + 1]; i++) {
+                int u = preds[i];
+                if (!arena[u] || attr[u]) continue;
+                if (owner(u) == team || --remaining[u] == 0) {
+                    attr[u] = true;
+                    queue.add(u);
+                }
+            }
         }
+        return attr;
+    }
 
-        MinimaxPlay transpoPlay = transpoTable.get(node.getHashCode());
-        if (transpoPlay != null && (depth <= transpoPlay.depth || Math.abs(transpoPlay.score) == 1)) {
-            return transpoPlay;
-        }
-        for (Node child : node.getChildren()) {
-            score = minimax(child, new HashSet<>(loops), depth - 1, alpha, beta).score;
-            if (node.getState().getTurn() == team) {
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestMove = child.getState().getMove();
+    // Numbers the strongly connected components of the arena, with an iterative Tarjan. Nodes outside get -1
+    private static int[] components(boolean[] arena) {
+        int[] index = new int[size];
+        int[] low = new int[size];
+        int[] component = new int[size];
+        int[] nextEdge = new int[size];
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int[] callStack = new int[size];
+        Arrays.fill(index, -1);
+        Arrays.fill(component, -1);
+        int counter = 0;
+        int components = 0;
+        for (int root = 0; root < size; root++) {
+            if (!arena[root] || index[root] != -1) continue;
+            int stackSize = 0;
+            int callSize = 0;
+            callStack[callSize++] = root;
+            index[root] = low[root] = counter++;
+            nextEdge[root] = edgeStart[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (callSize > 0) {
+                int v = callStack[callSize - 1];
+                if (nextEdge[v] < edgeStart[v + 1]) {
+                    int w = edges[nextEdge[v]++];
+                    if (!arena[w]) continue;
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        nextEdge[w] = edgeStart[w];
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[callSize++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                // All edges of v are done
+                callSize--;
+                if (callSize > 0) {
+                    int parent = callStack[callSize - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
                 }
-                alpha = Math.max(score, alpha);
-            } else {
-                if (score < bestScore) {
-                    bestScore = score;
-                    bestMove = child.getState().getMove();
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        component[w] = components;
+                    } while (w != v);
+                    components++;
                 }
-                beta = Math.min(score, beta);
             }
-            if (beta <= alpha) break;
         }
-        if (transpoPlay == null || depth > transpoPlay.depth) {
-            transpoTable.put(node.getHashCode(),
-                    new MinimaxPlay(bestMove, bestScore, depth));
+        return component;
+    }
+
+    // The positions from which the team forces a winning cycle
+    private static boolean[] winningRegion(int team) {
+        int opponent = (team == RED) ? BLACK : RED;
+        boolean[] all = new boolean[size];
+        boolean[] opponentScores = new boolean[size];
+        for (int v = 0; v < size; v++) {
+            all[v] = edgeStart[v + 1] > edgeStart[v];
+            if (owner(v) != opponent) continue;
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                if (scorer[e] == opponent) opponentScores[v] = true;
+            }
+        }
+        // Stay out of the reach of the opponent scoring
+        boolean[] unsafe = attractor(opponent, all, opponentScores);
+        boolean[] arena = new boolean[size];
+        for (int v = 0; v < size; v++) arena[v] = all[v] && !unsafe[v];
+        int[] component = components(arena);
+        printComponents(component, arena, team);
+
+        // Remove the positions the opponent can keep away from scoring, until the team scores from everywhere left
+        int round = 0;
+        while (true) {
+            round++;
+            boolean[] scores = new boolean[size];
+            for (int v = 0; v < size; v++) {
+                if (!arena[v] || owner(v) != team) continue;
+                for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                    int w = edges[e];
+                    if (scorer[e] == team && arena[w] && component[w] == component[v]) scores[v] = true;
+                }
+            }
+            boolean[] reach = attractor(team, arena, scores);
+            boolean[] rest = new boolean[size];
+            boolean done = true;
+            for (int v = 0; v < size; v++) {
+                rest[v] = arena[v] && !reach[v];
+                if (rest[v]) done = false;
+            }
+            if (done) break;
+            boolean[] lost = attractor(opponent, arena, rest);
+            for (int v = 0; v < size; v++) arena[v] &= !lost[v];
         }
-        return new MinimaxPlay(bestMove, bestScore, depth);
+        System.out.println("Büchi game solved in " + round + " rounds");
+        return arena;
+    }
+
+    private static void printComponents(int[] component, boolean[] arena, int team) {
+        int count = 0;
+        for (int v = 0; v < size; v++) count = Math.max(count, component[v] + 1);
+        int[] sizes = new int[count];
+        boolean[] scoring = new boolean[count];
+        int safe = 0;
+        for (int v = 0; v < size; v++) {
+            if (!arena[v]) continue;
+            safe++;
+            sizes[component[v]]++;
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                if (scorer[e] == team && arena[edges[e]] && component[edges[e]] == component[v])
+                    scoring[component[v]] = true;
+            }
+        }
+        int largest = 0;
+        int nonTrivial = 0;
+        int withScoring = 0;
+        for (int c = 0; c < count; c++) {
+            largest = Math.max(largest, sizes[c]);
+            if (sizes[c] > 1) nonTrivial++;
+            if (scoring[c]) withScoring++;
+        }
+        System.out.println("Positions safe from the opponent scoring: " + safe + ", components: " + count +
+                ", non trivial: " + nonTrivial + ", largest: " + largest + ", with a point inside: " + withScoring);
+    }
+
+    private static void printRegion(String team, boolean[] region, int start) {
+        int count = 0;
+        for (int v = 0; v < PositionIndex.getLayerSize(); v++) if (region[v]) count++;
+        System.out.println(team + " forces a winning cycle from " + count + " positions" +
+                (region[start] ? ", including the start" : ""));
     }
 
     public static void main(String args[]) {
-        Zobrist.initialize();
-        State state = new State(5);
-        String winner = iterativeDeepeningMinimax(state);
-        System.out.print("Algorithm is finished running. ");
+        long startTime = System.currentTimeMillis();
+        buildGraph();
+        System.out.println("Positions: " + (size - 2) + ", moves: " + (edgeCount - 2) + ". Time spent: " +
+                (System.currentTimeMillis() - startTime));
+        int start = PositionIndex.rank(new MutableState(new State(1)));
+        boolean[] red = winningRegion(RED);
+        printRegion("RED", red, start);
+        boolean[] black = winningRegion(BLACK);
+        printRegion("BLACK", black, start);
+        System.out.print("Algorithm is finished running. Time spent: " + (System.currentTimeMillis() - startTime) + ". ");
+        String winner = red[start] ? "RED" : black[start] ? "BLACK" : "None";
         System.out.println(winner + " is able to force a winning cycle");
     }
 }
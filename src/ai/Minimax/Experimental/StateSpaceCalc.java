@@ -1,218 +1,146 @@
 /**
- * This class calculates the state space of Kulibrat using Minimax
+ * This class calculates the state space of Kulibrat with a parallel breadth first search
  */
 package ai.Minimax.Experimental;
 
-import ai.Minimax.MinimaxPlay;
-import ai.Minimax.Node;
-import ai.Minimax.Zobrist;
-import game.Logic;
-import game.Move;
+import ai.Minimax.Tablebase.PositionIndex;
+import game.MutableState;
 import game.State;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
 
-import static misc.Globals.BLACK;
-import static misc.Globals.RED;
+import static misc.Globals.*;
 
+// The scores don't change which boards can be reached, so a position is a board and the player to move, numbered by
+// PositionIndex, and every possible position has a bit in the visited set. The search goes one level at a time: the
+// positions of the frontier are expanded in parallel chunks, and a child is claimed by setting its bit atomically, in
+// the visited set and in the next frontier. The reachable positions, the branching factors and the positions which
+// can't be reached all come out of the one search
 public class StateSpaceCalc {
-    private static HashMap<BoardConfig, MinimaxPlay> transTable = new HashMap<>();
-    private static HashSet<BoardConfig> fullSpace = new HashSet<>();
-    private static long legalMoves = 0;
-    private static int team = RED;
-    private static boolean findBranchFactor = true;
+    private static final int NO_SCORE_LIMIT = 1000; // Score limit the positions are set up with, which is never reached
+    private static final int CHUNK = 64; // Words of the frontier expanded by one task
+    private static int words;
+    private static AtomicLongArray visited;
+    private static AtomicLong legalMoves = new AtomicLong();
+    private static AtomicLong terminal = new AtomicLong(); // Reachable positions where the game is over
+    private static AtomicLongArray branchFactors = new AtomicLongArray(MutableState.MAX_MOVES + 1);
+    private static boolean printMissing = true;
 
     private static void calcBoardPositions(State state) {
-        fullSpace = produceStateSpace();
-        iterativeDeepeningMinimax(state);
-        System.out.println("FINAL STATE SPACE SIZE: " + transTable.size());
-        printMissingStates(fullSpace);
-        double avgBranchFactor = 0;
-        if (findBranchFactor) avgBranchFactor = ((double) legalMoves / (double) transTable.size());
-        System.out.println("AVG BRANCHING FACTOR: " + avgBranchFactor);
+        int positions = PositionIndex.getLayerSize();
+        words = (positions + 63) / 64;
+        visited = new AtomicLongArray(words);
+        long startTime = System.currentTimeMillis();
+        long reached = breadthFirstSearch(PositionIndex.rank(new MutableState(state)));
+        System.out.println("FINAL STATE SPACE SIZE: " + reached + " of " + positions + " positions, of which " +
+                terminal.get() + " are over. Time spent: " + (System.currentTimeMillis() - startTime));
+        printBranchFactors(reached);
+        printMissingStates(positions - reached);
     }
 
-    private static void iterativeDeepeningMinimax(State state) {
-        int CURR_MAX_DEPTH = 0;
-        boolean done = false;
-        while (!done) {
-            Node simNode = new Node(state); // Start from fresh (Don't reuse previous game tree in new iterations)
-            CURR_MAX_DEPTH++;
-            int prevSize = transTable.size();
-            minimax(simNode, CURR_MAX_DEPTH);
-            System.out.println("CURRENT MAX DEPTH: " + CURR_MAX_DEPTH);
-            System.out.println("TABLE SIZE: " + transTable.size());
-            if (transTable.size() == prevSize) done = true;
-        }
-    }
-
-    public static MinimaxPlay minimax(Node node, int depth) {
-        Move bestMove = null;
-        int bestScore = (node.getState().getTurn() == team) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
-        int score;
-        if (depth == 0) {
-            return new MinimaxPlay(bestMove, heuristic(node.getState()), depth);
-        }
-        BoardConfig bc = new BoardConfig(node.getState());
-        fullSpace.remove(bc);
-        MinimaxPlay transpoPlay = transTable.get(bc);
-        if (transpoPlay != null && depth <= transpoPlay.depth) {
-            return transpoPlay;
-        }
-
-        for (Node child : node.getChildren()) {
-            score = minimax(child, depth - 1).score;
-            if (node.getState().getTurn() == team) {
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestMove = child.getState().getMove();
-                }
-            } else {
-                if (score < bestScore) {
-                    bestScore = score;
-                    bestMove = child.getState().getMove();
+    // Returns the number of reachable positions
+    private static long breadthFirstSearch(int start) {
+        AtomicLongArray frontier = new AtomicLongArray(words);
+        visited.set(start / 64, 1L << start);
+        frontier.set(start / 64, 1L << start);
+        long reached = 1;
+        int depth = 0;
+        long frontierSize = 1;
+        while (frontierSize > 0) {
+            System.out.println("DEPTH: " + depth + ", POSITIONS: " + frontierSize + ", REACHED: " + reached);
+            AtomicLongArray current = frontier;
+            AtomicLongArray next = new AtomicLongArray(words);
+            AtomicLong claimed = new AtomicLong();
+            IntStream.range(0, (words + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+                MutableState state = new MutableState();
+                int[] moves = new int[MutableState.MAX_MOVES];
+                long count = 0;
+                for (int word = chunk * CHUNK; word < Math.min(words, (chunk + 1) * CHUNK); word++) {
+                    long bits = current.get(word);
+                    while (bits != 0) {
+                        int rank = word * 64 + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        count += expand(rank, state, moves, next);
+                    }
                 }
-            }
-        }
-        if (transpoPlay == null || depth > transpoPlay.depth) {
-            if (transpoPlay == null) if (findBranchFactor) legalMoves += node.getState().getLegalMoves().size();
-            transTable.put(bc, new MinimaxPlay(bestMove, bestScore, depth));
+                claimed.addAndGet(count);
+            });
+            frontier = next;
+            frontierSize = claimed.get();
+            reached += frontierSize;
+            depth++;
         }
-
-        return new MinimaxPlay(bestMove, bestScore, depth);
+        return reached;
     }
 
-    private static int heuristic(State state) {
-        int opponent = (team == RED) ? BLACK : RED;
-        int winner = Logic.getWinner(state);
-
-        if (winner == team) return 1000;
-        else if (winner == opponent) return -1000;
-        return 0;
-    }
-
-    private static HashSet<BoardConfig> produceStateSpace() {
-        HashSet<BoardConfig> fullSpace = new HashSet<>();
-        int[] board = new int[12];
-        // Empty board
-        saveBoardConfig(board, RED, fullSpace);
-        saveBoardConfig(board, BLACK, fullSpace);
-        // Only black pieces
-        placeBlackPieces(board, RED, fullSpace);
-        placeBlackPieces(board, BLACK, fullSpace);
-        // Mix of red and black pieces
-        for (int turn = 1; turn <= 2; turn++) {
-            for (int p1 = 0; p1 < board.length; p1++) {
-                for (int p2 = p1; p2 < board.length; p2++) {
-                    for (int p3 = p2; p3 < board.length; p3++) {
-                        for (int p4 = p3; p4 < board.length; p4++) {
-                            board = new int[12];
-                            board[p1] = RED;
-                            board[p2] = RED;
-                            board[p3] = RED;
-                            board[p4] = RED;
-                            saveBoardConfig(board, turn, fullSpace);
-                            placeBlackPieces(board, turn, fullSpace);
-                        }
-                    }
-                }
+    // Records the branching factor of the position, and claims its children which weren't visited yet. Returns the
+    // number of children claimed
+    private static int expand(int rank, MutableState state, int[] moves, AtomicLongArray next) {
+        PositionIndex.unrank(rank, state, 0, 0, NO_SCORE_LIMIT);
+        int count = state.gameOver() ? 0 : state.generateMoves(state.getTurn(), moves);
+        if (count == 0) terminal.incrementAndGet();
+        branchFactors.incrementAndGet(count);
+        legalMoves.addAndGet(count);
+        int claimed = 0;
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            int child = PositionIndex.rank(state);
+            state.unmakeMove();
+            if (setBit(visited, child)) {
+                setBit(next, child);
+                claimed++;
             }
         }
-        return fullSpace;
+        return claimed;
     }
 
-    private static void placeBlackPieces(int[] origBoard, int turn, HashSet<BoardConfig> fullSpace) {
-        int[] board = Arrays.copyOf(origBoard, origBoard.length);
-        for (int b1 = 0; b1 < board.length; b1++) {
-            for (int b2 = b1; b2 < board.length; b2++) {
-                for (int b3 = b2; b3 < board.length; b3++) {
-                    for (int b4 = b3; b4 < board.length; b4++) {
-                        board = Arrays.copyOf(origBoard, origBoard.length);
-                        if (board[b1] == 0) board[b1] = BLACK;
-                        if (board[b2] == 0) board[b2] = BLACK;
-                        if (board[b3] == 0) board[b3] = BLACK;
-                        if (board[b4] == 0) board[b4] = BLACK;
-
-                        saveBoardConfig(board, turn, fullSpace);
-                    }
-                }
-            }
+    // Sets the bit, and returns whether it was clear
+    private static boolean setBit(AtomicLongArray bits, int index) {
+        long mask = 1L << index;
+        int word = index / 64;
+        while (true) {
+            long old = bits.get(word);
+            if ((old & mask) != 0) return false;
+            if (bits.compareAndSet(word, old, old | mask)) return true;
         }
     }
 
-    private static void saveBoardConfig(int[] board, int turn, HashSet<BoardConfig> fullSpace) {
-        int[][] gameBoard = new int[4][3];
-
-        for (int i = 0; i < board.length; i++) {
-            gameBoard[i % 4][i / 4] = board[i];
+    private static void printBranchFactors(long reached) {
+        System.out.println("AVG BRANCHING FACTOR: " + ((double) legalMoves.get() / (double) reached));
+        System.out.println("BRANCHING FACTOR HISTOGRAM");
+        for (int moves = 0; moves < branchFactors.length(); moves++) {
+            if (branchFactors.get(moves) > 0) System.out.println(moves + " MOVES: " + branchFactors.get(moves));
         }
-        BoardConfig bc = new BoardConfig(gameBoard, turn);
-        fullSpace.add(bc);
     }
 
-    private static void printMissingStates(HashSet<BoardConfig> fullSpace) {
-        System.out.println("AMOUNT OF STATES NOT IN THE STATESPACE: " + fullSpace.size());
+    private static void printMissingStates(long missing) {
+        System.out.println("AMOUNT OF STATES NOT IN THE STATESPACE: " + missing);
+        if (!printMissing) return;
         System.out.println("PRINTING THE STATES NOT IN THE STATESPACE");
-        for (BoardConfig bc : fullSpace) {
-            for (int i = 0; i < bc.board.length; i++) {
-                for (int j = 0; j < bc.board[i].length; j++) {
-                    System.out.print(bc.board[i][j] + " ");
+        MutableState state = new MutableState();
+        for (int rank = 0; rank < PositionIndex.getLayerSize(); rank++) {
+            if ((visited.get(rank / 64) & 1L << rank) != 0) continue;
+            PositionIndex.unrank(rank, state, 0, 0, NO_SCORE_LIMIT);
+            for (int i = 0; i < bHeight; i++) {
+                for (int j = 0; j < bWidth; j++) {
+                    System.out.print(state.getBoardEntry(i * bWidth + j) + " ");
                 }
                 System.out.println();
             }
-            String turn = (bc.getTurn() == RED) ? "Red" : "Black";
+            String turn = (state.getTurn() == RED) ? "Red" : "Black";
             System.out.println("STATE TURN: " + turn);
             System.out.println();
         }
     }
 
+    // With "count" as the argument, the unreachable positions are only counted, not printed
     public static void main(String[] args) {
-        Zobrist.initialize();
+        if (args.length > 0 && args[0].equals("count")) printMissing = false;
         int scoreLimit = 15;
         State state = new State(scoreLimit);
         calcBoardPositions(state);
     }
 
-
-    private static class BoardConfig {
-        int turn;
-        int[][] board;
-
-        BoardConfig(int[][] board, int turn) {
-            this.board = new int[board.length][];
-
-            for (int i = 0; i < board.length; i++) {
-                this.board[i] = Arrays.copyOf(board[i], board[i].length);
-            }
-            this.turn = turn;
-        }
-
-        BoardConfig(State state) {
-            board = new int[state.getBoard().length][];
-            for (int i = 0; i < state.getBoard().length; i++) {
-                board[i] = Arrays.copyOf(state.getBoard()[i], state.getBoard()[i].length);
-            }
-            turn = state.getTurn();
-        }
-
-        int getTurn() {
-            return turn;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof BoardConfig)) return false;
-            BoardConfig cstate = (BoardConfig) obj;
-            return this == cstate || turn == cstate.getTurn() &&
-                    Arrays.deepEquals(board, cstate.board);
-        }
-
-        @Override
-        public int hashCode() {
-            return Arrays.deepHashCode(board) + turn;
-        }
-    }
 }
-
@@ -1,14 +1,22 @@
 package ai.Minimax;
 
 import ai.AI;
+import ai.Minimax.Tablebase.BulkLoader;
+import ai.Minimax.Tablebase.Checkpoint;
+import ai.Minimax.Tablebase.RetrogradeSolver;
+import ai.Minimax.Tablebase.ScoreTable;
+import ai.Minimax.Tablebase.ShardedTablebase;
+import ai.Minimax.Tablebase.Tablebase;
+import ai.Minimax.Tablebase.TablebaseClient;
+import ai.Minimax.Tablebase.TablebaseFile;
 import game.Logic;
 import game.Move;
 import game.State;
 import misc.Globals;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
-import java.util.HashMap;
-import java.util.Map;
 
 import static misc.Globals.BLACK;
 import static misc.Globals.RED;
@@ -17,14 +25,22 @@ public class LookupTableMinimax extends AI {
     private boolean useDB = true;
     private int CURR_MAX_DEPTH;
     private int unevaluatedNodes = 0;
-    private HashMap<Long, MinimaxPlay> lookupTable;
-    private String JDBC_URL;
+    private OffHeapMap lookupTable; // Packed plays by the hash of the position. Only made by the minimax
+    private TablebaseClient client = TablebaseClient.getInstance();
     private Connection conn;
+    private ScoreTable tablebase; // Used instead of the plays tables, unless pieces can be lost
 
-    public LookupTableMinimax(int team, State state, boolean overwriteDB) {
+    // The shards are those of the game, which the board probes as well
+    public LookupTableMinimax(int team, State state, boolean overwriteDB, ShardedTablebase shards) {
         super(team);
-        lookupTable = new HashMap<>();
-        JDBC_URL = Globals.JDBC_URL;
+        // The tablebase file needs no DB at all
+        if (!overwriteDB && !Globals.losePieces) {
+            TablebaseFile file = TablebaseFile.getInstance();
+            if (file != null && file.getScoreLimit() >= state.getScoreLimit()) {
+                tablebase = file;
+                return;
+            }
+        }
         if (!overwriteDB)
             checkConnection(state);
         if (useDB) {
@@ -32,13 +48,14 @@ public class LookupTableMinimax extends AI {
             if (overwriteDB) {
                 this.team = RED;
                 System.out.println("Rebuilding lookup table. This will take some time.");
-                buildLookupTable(state);
                 try {
-                    fillTable(state.getScoreLimit());
-                } catch (SQLException e) {
+                    buildLookupTable(state);
+                } catch (SQLException | IOException e) {
                     e.printStackTrace();
                 }
                 this.team = team;
+            } else if (!Globals.losePieces) {
+                tablebase = shards;
             }
         }
     }
@@ -53,7 +70,9 @@ public class LookupTableMinimax extends AI {
         // table lookup
         Node simNode = new Node(state);
         MinimaxPlay play;
-        if (useDB) {
+        if (tablebase != null) {
+            play = tablebase.getBestPlay(state);
+        } else if (useDB) {
             play = queryData(simNode.getHashCode(), state.getScoreLimit());
         } else {
             play = iterativeDeepeningMinimax(state);
@@ -68,25 +87,59 @@ public class LookupTableMinimax extends AI {
                 ", oldCol: " + move.oldCol + ", newRow: " + move.newRow + ", newCol: " + move.newCol +
                 ", WINNER IS: " + winner);
         System.out.println(" in " + (play.score >= 1000 ? 2000 - play.score : (play.score == 0) ? "∞" : 2000 + play.score) + " moves!");
+        if (conn != null) System.out.println(client.getStats());
+        if (tablebase instanceof ShardedTablebase) System.out.println(((ShardedTablebase) tablebase).getStats());
         return move;
     }
 
-    // This function builds the lookup table from scratch
-    private void buildLookupTable(State state) {
+    // This function builds the lookup table from scratch. Retrograde analysis solves every position exactly once, and
+    // reuses the layers in the tablebase file and DB from lower score limits, and the layers checkpointed by a build
+    // which was interrupted. The solved layers are written to both. It relies on the scores never decreasing, and on the
+    // unplaced pieces following from the board, so the iterative deepening is still used when pieces can be lost
+    private void buildLookupTable(State state) throws SQLException, IOException {
         long startTime = System.currentTimeMillis();
-        iterativeDeepeningMinimax(state);
+        int scoreLimit = state.getScoreLimit();
+        if (Globals.losePieces) {
+            iterativeDeepeningMinimax(state);
+            fillTable(scoreLimit);
+        } else {
+            RetrogradeSolver solver = new RetrogradeSolver();
+            solver.setProgressListener((stage, done, total, elapsed, eta) ->
+                    System.out.println(stage + ": " + done + "/" + total + ". Time spent: " + elapsed +
+                            ((eta < 0) ? "" : ", time left: " + eta)));
+            TablebaseFile file = TablebaseFile.getInstance();
+            if (file != null) file.load(solver);
+            Tablebase dbTablebase = new Tablebase(client);
+            dbTablebase.load(solver, scoreLimit);
+            Checkpoint checkpoint = new Checkpoint(Globals.CHECKPOINT_PATH);
+            int resumed = checkpoint.load(solver);
+            if (resumed > 0) System.out.println("Resuming the last build from " + resumed + " solved layers");
+            solver.setCheckpoint(checkpoint);
+            solver.solve(scoreLimit);
+            System.out.println("Inserting data into table. This will take some time");
+            dbTablebase.store(solver, scoreLimit);
+            checkpoint.delete();
+            int fileScoreLimit = Math.max(scoreLimit, (file == null) ? 0 : file.getScoreLimit());
+            try {
+                TablebaseFile.write(Globals.TABLEBASE_PATH, solver, fileScoreLimit);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tablebase = solver;
+        }
         System.out.println("Lookup table successfully built. Time spent: " + (System.currentTimeMillis() - startTime));
     }
 
     // Runs an iterative deepening minimax as the exhaustive brute-force for the lookupDB. The data is saved in the transpo table
     private MinimaxPlay iterativeDeepeningMinimax(State state) {
+        if (lookupTable == null) lookupTable = new OffHeapMap(OffHeapMap.getDefaultBudget(), Globals.SPILL_PATH);
         CURR_MAX_DEPTH = 0;
         boolean done = false;
         MinimaxPlay play = null;
         int doneCounter = 0;
         while (!done) {
             Node simNode = new Node(state); // Start from fresh (Don't reuse previous game tree in new iterations)
-            int prevSize = lookupTable.size();
+            long prevSize = lookupTable.size();
             int prevUnevaluatedNodes = unevaluatedNodes;
             unevaluatedNodes = 0;
             CURR_MAX_DEPTH += 1;
@@ -117,7 +170,8 @@ public class LookupTableMinimax extends AI {
         if (Logic.gameOver(node.getState()) || depth == 0) {
             return new MinimaxPlay(bestMove, heuristic(node.getState()), depth);
         }
-        MinimaxPlay transpoPlay = lookupTable.get(node.getHashCode());
+        long packedPlay = lookupTable.get(node.getHashCode(), -1);
+        MinimaxPlay transpoPlay = (packedPlay == -1) ? null : MinimaxPlay.unpack(packedPlay);
         if (transpoPlay != null && depth <= transpoPlay.depth) {
             return transpoPlay;
         }
@@ -141,8 +195,7 @@ public class LookupTableMinimax extends AI {
             }
         }
         if (transpoPlay == null || depth > transpoPlay.depth) {
-            lookupTable.put(node.getHashCode(),
-                    new MinimaxPlay(bestMove, bestScore, depth));
+            lookupTable.put(node.getHashCode(), new MinimaxPlay(bestMove, bestScore, depth).pack());
         }
         if (!evaluated) unevaluatedNodes++;
         return new MinimaxPlay(bestMove, bestScore, depth);
@@ -163,15 +216,13 @@ public class LookupTableMinimax extends AI {
 
     // Connects to the DB
     private Connection getConnection(int scoreLimit) {
-        System.out.println("Connecting to database. This might take some time");
         Connection conn = null;
         try {
-            conn = DriverManager.getConnection(
-                    JDBC_URL);
+            conn = client.getConnection();
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        System.out.println("Connection successful");
+        if (!Globals.losePieces) return conn;
         // Creating the table, if it does not exist already
         String tableName = "plays_" + scoreLimit;
         try {
@@ -183,34 +234,29 @@ public class LookupTableMinimax extends AI {
         return conn;
     }
 
-    // Copies the transposition table into the database
-    private void fillTable(int scoreLimit) throws SQLException {
+    // Copies the transposition table into the database, by a bulk load which replaces the table
+    private void fillTable(int scoreLimit) throws SQLException, IOException {
         System.out.println("Inserting data into table. This will take some time");
         String tableName = "plays_" + scoreLimit;
         long startTime = System.currentTimeMillis();
-        conn.createStatement().execute("truncate table " + tableName);
-
-        final int batchSize = 1000;
-        int count = 0;
-        PreparedStatement stmt = conn.prepareStatement("insert into " + tableName + " values (?, ?, ?, ?, ?, ?, ?)");
-        for (Map.Entry<Long, MinimaxPlay> entry : lookupTable.entrySet()) {
-            Long key = entry.getKey();
-            MinimaxPlay value = entry.getValue();
-            stmt.setLong(1, key);
-            stmt.setInt(2, value.move.oldRow);
-            stmt.setInt(3, value.move.oldCol);
-            stmt.setInt(4, value.move.newRow);
-            stmt.setInt(5, value.move.newCol);
-            stmt.setInt(6, value.move.team);
-            stmt.setInt(7, value.score);
-
-            stmt.addBatch();
-            if (++count % batchSize == 0) {
-                stmt.executeBatch();
+        try (BulkLoader loader = new BulkLoader(client)) {
+            try {
+                lookupTable.forEach((key, packedPlay) -> {
+                    MinimaxPlay value = MinimaxPlay.unpack(packedPlay);
+                    try {
+                        loader.addRow(key, value.move.oldRow, value.move.oldCol, value.move.newRow,
+                                value.move.newCol, value.move.team, value.score);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
+            loader.replace(tableName, "id bigint not null, oldRow smallint, oldCol smallint, newRow smallint, " +
+                    "newCol smallint, team smallint, score smallint", "id");
         }
-        stmt.executeBatch();
-        stmt.close();
+        client.clearCache();
         System.out.println("Data inserted successfully. Time spent: " + (System.currentTimeMillis() - startTime));
     }
 
@@ -219,15 +265,7 @@ public class LookupTableMinimax extends AI {
         MinimaxPlay play = null;
         String tableName = "plays_" + scoreLimit;
         try {
-            Statement statement = conn.createStatement();
-            ResultSet resultSet = statement.executeQuery("select oldRow, oldCol, newRow, newCol, team, score from " + tableName + " where id=" + key);
-            while (resultSet.next()) {
-                Move move = new Move(resultSet.getInt(1), resultSet.getInt(2),
-                        resultSet.getInt(3), resultSet.getInt(4), resultSet.getInt(5));
-                int score = resultSet.getInt(6);
-                play = new MinimaxPlay(move, score, 0);
-            }
-            statement.close();
+            play = client.queryPlay(tableName, key);
         } catch (SQLException e) {
             e.printStackTrace();
             System.out.println("Table '" + tableName + "' does not exist! Exiting.");
@@ -240,29 +278,29 @@ public class LookupTableMinimax extends AI {
     // If not, exits the program and tells the user to rebuild the database
     private void checkConnection(State state) {
         int scoreLimit = state.getScoreLimit();
-        System.out.println("Connecting to database. This might take some time");
-        Connection conn = null;
-        try {
-            conn = DriverManager.getConnection(
-                    JDBC_URL);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (!Globals.losePieces) {
+            boolean complete = false;
+            try {
+                complete = new Tablebase(client).isComplete(scoreLimit);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            if (!complete) {
+                System.err.println("The tablebase is incomplete for a score limit of " + scoreLimit + ".");
+                System.err.println("Please rebuild the database. Exiting");
+                System.exit(-1);
+            }
+            return;
         }
-        System.out.println("Connection successful");
-
         String tableName = "plays_" + scoreLimit;
         long key = new Node(state).getHashCode();
         boolean error = false;
         // Try query to check for table existance
         try {
-            Statement statement = conn.createStatement();
-            ResultSet resultSet = statement.executeQuery("select oldRow, oldCol, newRow, newCol, team, score from "
-                    + tableName + " where id=" + key);
-            if (!resultSet.next()) {
+            if (client.queryPlay(tableName, key) == null) {
                 System.err.println("The database table '" + tableName + "' is incomplete.");
                 error = true;
             }
-            statement.close();
         } catch (SQLException e) {
             System.err.println("Table '" + tableName + "' does not exist in the database.");
             error = true;
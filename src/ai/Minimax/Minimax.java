@@ -19,6 +19,9 @@ public class Minimax extends AI {
     private boolean useTranspo = true;
     private HashMap<Long, MinimaxPlay> transTable;
     private Node prevBestNode;
+    private long maxPonderTime = 30000; // Pondering stops by itself after this, if the game is left
+    private volatile Thread ponderThread;
+    private volatile boolean pondering;
 
     public Minimax(int team, int calculationTime) {
         super(team);
@@ -28,6 +31,7 @@ public class Minimax extends AI {
 
     // Runs the iterative deepening minimax with a set timelimit
     public Move makeMove(State state) {
+        stopPondering();
         long startTime = System.currentTimeMillis();
         if (state.getLegalMoves().size() == 1) {
             chill(startTime);
@@ -122,9 +126,51 @@ public class Minimax extends AI {
     }
 
     private boolean outOfTime(long startTime) {
+        if (Thread.currentThread() == ponderThread) {
+            return !pondering || System.currentTimeMillis() - startTime >= maxPonderTime;
+        }
         return System.currentTimeMillis() - startTime >= calculationTime;
     }
 
+    // Stops pondering when the opponent has moved, and starts again once our move has been played
+    public void update(State state) {
+        stopPondering();
+        if (ponder && useTranspo && state.getTurn() != team && !Logic.gameOver(state)) startPondering(state);
+    }
+
+    // Searches on the opponent's time, to fill the transposition table for our next move. If the table already
+    // holds the expected reply, the position after that reply is searched, otherwise all replies are
+    private void startPondering(State state) {
+        State ponderState = state;
+        MinimaxPlay expected = transTable.get(new Node(state).getHashCode());
+        if (expected != null && expected.move != null) {
+            State next = new State(state);
+            Logic.doTurn(expected.move, next);
+            next.setMove(expected.move);
+            if (!Logic.gameOver(next) && next.getTurn() == team) ponderState = next;
+        }
+        State finalPonderState = ponderState;
+        pondering = true;
+        ponderThread = new Thread(() -> {
+            System.out.println("Pondering...");
+            iterativeDeepeningMinimax(finalPonderState, System.currentTimeMillis());
+        });
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    private void stopPondering() {
+        Thread thread = ponderThread;
+        if (thread == null) return;
+        pondering = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+
     // Used by MCTS
     public void setTeam(int team) {
         this.team = team;
@@ -152,9 +198,14 @@ public class Minimax extends AI {
     }
 
     // Used if a win has been ensured, to make sure the algorithm fulfills all its allocated time.
+    // Sleeps instead of spinning, so the CPU is left to the opponent and to pondering
     private void chill(long startTime) {
-        while (!outOfTime(startTime)) {
-            //chill
+        long remaining = calculationTime - (System.currentTimeMillis() - startTime);
+        if (remaining <= 0) return;
+        try {
+            Thread.sleep(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
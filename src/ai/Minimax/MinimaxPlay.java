@@ -13,4 +13,25 @@ public class MinimaxPlay {
         this.score = score;
         this.depth = depth;
     }
+
+    // Packs the play into a long for the OffHeapMap. The score takes the low 32 bits, then 12 bits of depth, 4 bits per
+    // coordinate of the move offset by 1 so -1 fits, 2 bits of team, and a bit for whether there is a move at all
+    public long pack() {
+        if (depth < 0 || depth > 0xFFF) throw new IllegalArgumentException("Depth " + depth + " can't be packed");
+        long packed = (score & 0xFFFFFFFFL) | ((long) depth << 32);
+        if (move != null) {
+            packed |= (long) (move.oldRow + 1) << 44 | (long) (move.oldCol + 1) << 48 | (long) (move.newRow + 1) << 52 |
+                    (long) (move.newCol + 1) << 56 | (long) move.team << 60 | 1L << 62;
+        }
+        return packed;
+    }
+
+    public static MinimaxPlay unpack(long packed) {
+        Move move = null;
+        if ((packed >>> 62 & 1) == 1) {
+            move = new Move((int) (packed >>> 44 & 0xF) - 1, (int) (packed >>> 48 & 0xF) - 1,
+                    (int) (packed >>> 52 & 0xF) - 1, (int) (packed >>> 56 & 0xF) - 1, (int) (packed >>> 60 & 0x3));
+        }
+        return new MinimaxPlay(move, (int) packed, (int) (packed >>> 32 & 0xFFF));
+    }
 }
@@ -16,7 +16,7 @@ public class Node {
     // Starting Root state
     public Node(State startState) {
         this.state = new State(startState);
-        this.zobrist_key = initHashCode();
+        this.zobrist_key = Zobrist.hash(state);
     }
 
     // Non-root state
@@ -69,23 +69,6 @@ public class Node {
     }
 
 
-    private long initHashCode() {
-        long hash = 0L;
-        int[][] board = state.getBoard();
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                if (board[i][j] != 0) {
-                    int k = board[i][j]; // team occupying spot
-                    hash = hash ^ Zobrist.board[i][j][k];
-                }
-            }
-        }
-        hash = hash ^ Zobrist.turn[state.getTurn()];
-        hash = hash ^ Zobrist.redPoints[state.getScore(RED)];
-        hash = hash ^ Zobrist.blackPoints[state.getScore(BLACK)];
-        return hash;
-    }
-
     private void updateHashCode(State parent) {
         int[][] board = state.getBoard();
         for (int i = 0; i < board.length; i++) {
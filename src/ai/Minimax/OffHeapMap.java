@@ -0,0 +1,254 @@
+package ai.Minimax;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import misc.Globals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// A hash map from long to long outside of the heap, for the transposition tables of the exhaustive searches. Boxed
+// keys and play objects in a HashMap cost around 100 bytes per position and long GC pauses, here an entry is 16
+// bytes in one open addressing table with linear probing. The table doubles when it is 3/4 full. While it fits the
+// memory budget it is allocated as direct memory, beyond that it is memory mapped from a file in the spill directory,
+// so the OS pages it to the disk instead of the build running out of memory. The same happens when the JVM is out of
+// direct memory before the budget is reached
+public class OffHeapMap {
+    private static final int SEGMENT_SHIFT = 26; // Entries per segment, so a segment of 1 GB fits a buffer
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final long EMPTY = 0; // Key of a free slot. The key 0 itself is kept aside
+    private long memoryBudget;
+    private String spillPath;
+    private LongBuffer[] segments;
+    private Path spillFile;
+    private long capacity;
+    private long size = 0;
+    private boolean hasZero = false;
+    private long zeroValue;
+
+    // The budget is in bytes. Without a spill path the table can't grow past the budget
+    public OffHeapMap(long memoryBudget, String spillPath) {
+        this.memoryBudget = memoryBudget;
+        this.spillPath = spillPath;
+        allocate(1024);
+    }
+
+    // A quarter of the direct memory the JVM allows, so a few tables fit side by side, and at most TABLE_MEMORY_BUDGET
+    public static long getDefaultBudget() {
+        return Math.min(Globals.TABLE_MEMORY_BUDGET, maxDirectMemory() / 4);
+    }
+
+    private static long maxDirectMemory() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            long max = Long.parseLong(bean.getVMOption("MaxDirectMemorySize").getValue());
+            if (max > 0) return max;
+        } catch (RuntimeException e) {
+            // Not a HotSpot JVM
+        }
+        return Runtime.getRuntime().maxMemory(); // The limit when it isn't set
+    }
+
+    public long size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) return hasZero;
+        return getKey(find(key)) == key;
+    }
+
+    // Returns the value of the key, or the default value if the key isn't there
+    public long get(long key, long defaultValue) {
+        if (key == EMPTY) return hasZero ? zeroValue : defaultValue;
+        long slot = find(key);
+        return (getKey(slot) == key) ? getValue(slot) : defaultValue;
+    }
+
+    public void put(long key, long value) {
+        if (key == EMPTY) {
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        long slot = find(key);
+        if (getKey(slot) != key) {
+            if ((size + 1) * 4 > capacity * 3) {
+                grow();
+                slot = find(key);
+            }
+            setKey(slot, key);
+            size++;
+        }
+        setValue(slot, value);
+    }
+
+    // Removes the key, and moves the entries after it back so no probe sequence is broken
+    public void remove(long key) {
+        if (key == EMPTY) {
+            hasZero = false;
+            return;
+        }
+        long slot = find(key);
+        if (getKey(slot) != key) return;
+        long mask = capacity - 1;
+        long next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long nextKey = getKey(next);
+            if (nextKey == EMPTY) break;
+            long home = hash(nextKey) & mask;
+            // The entry may fill the hole if its home isn't cyclically between the hole and itself
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                setKey(slot, nextKey);
+                setValue(slot, getValue(next));
+                slot = next;
+            }
+        }
+        setKey(slot, EMPTY);
+        size--;
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasZero) consumer.accept(EMPTY, zeroValue);
+        for (long slot = 0; slot < capacity; slot++) {
+            long key = getKey(slot);
+            if (key != EMPTY) consumer.accept(key, getValue(slot));
+        }
+    }
+
+    public void clear() {
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        allocate(1024);
+        size = 0;
+        hasZero = false;
+    }
+
+    // The slot of the key, or the free slot where it would go
+    private long find(long key) {
+        long mask = capacity - 1;
+        long slot = hash(key) & mask;
+        while (true) {
+            long k = getKey(slot);
+            if (k == key || k == EMPTY) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        LongBuffer[] oldSegments = segments;
+        Path oldSpillFile = spillFile;
+        long oldCapacity = capacity;
+        allocate(capacity * 2);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            LongBuffer segment = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+            int at = (int) (slot & SEGMENT_MASK) * 2;
+            long key = segment.get(at);
+            if (key == EMPTY) continue;
+            long newSlot = find(key);
+            setKey(newSlot, key);
+            setValue(newSlot, segment.get(at + 1));
+        }
+        if (oldSpillFile != null) {
+            try {
+                Files.deleteIfExists(oldSpillFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        long bytes = newCapacity * 16;
+        int segmentCount = (int) ((newCapacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        LongBuffer[] newSegments = new LongBuffer[segmentCount];
+        boolean direct = bytes <= memoryBudget;
+        if (direct) {
+            try {
+                for (int i = 0; i < segmentCount; i++) {
+                    newSegments[i] = ByteBuffer.allocateDirect((int) (segmentBytes(newCapacity, i)))
+                            .order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+                spillFile = null;
+            } catch (OutOfMemoryError e) {
+                if (spillPath == null) throw e;
+                newSegments = new LongBuffer[segmentCount];
+                direct = false;
+            }
+        }
+        if (!direct) {
+            if (spillPath == null)
+                throw new IllegalStateException("The table needs " + bytes + " bytes, above the memory budget of " +
+                        memoryBudget + " bytes");
+            try {
+                Files.createDirectories(Paths.get(spillPath));
+                spillFile = Files.createTempFile(Paths.get(spillPath), "table", ".bin");
+                spillFile.toFile().deleteOnExit();
+                try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    for (int i = 0; i < segmentCount; i++) {
+                        // The file grows to fit the mapping, and reads as zeros
+                        newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, ((long) i << SEGMENT_SHIFT) * 16,
+                                segmentBytes(newCapacity, i)).order(ByteOrder.nativeOrder()).asLongBuffer();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            System.out.println("Table of " + newCapacity + " entries spilled to '" + spillFile + "'");
+        }
+        segments = newSegments;
+        capacity = newCapacity;
+    }
+
+    private static long segmentBytes(long capacity, int segment) {
+        return Math.min(capacity - ((long) segment << SEGMENT_SHIFT), 1L << SEGMENT_SHIFT) * 16;
+    }
+
+    private long getKey(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].get((int) (slot & SEGMENT_MASK) * 2);
+    }
+
+    private long getValue(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].get((int) (slot & SEGMENT_MASK) * 2 + 1);
+    }
+
+    private void setKey(long slot, long key) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].put((int) (slot & SEGMENT_MASK) * 2, key);
+    }
+
+    private void setValue(long slot, long value) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].put((int) (slot & SEGMENT_MASK) * 2 + 1, value);
+    }
+
+    // Spreads keys like packed boards, which differ only in a few bits, over the table
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+}
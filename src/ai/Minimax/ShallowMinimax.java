@@ -0,0 +1,90 @@
+package ai.Minimax;
+
+import game.MutableState;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// Fixed depth minimax with alpha-beta pruning on a MutableState, used as a rollout policy by MCTS.
+// It is meant for depth 1 to 3, has its own static move ordering, allocates nothing while searching
+// and does no time bookkeeping
+public class ShallowMinimax {
+    public static final int MAX_DEPTH = 3;
+    private int[][] moves = new int[MAX_DEPTH + 1][MutableState.MAX_MOVES];
+    private int[][] order = new int[MAX_DEPTH + 1][MutableState.MAX_MOVES];
+    private MutableState state;
+    private int team;
+
+    // Returns the encoded best move for the player to move
+    public int search(MutableState state, int depth) {
+        this.state = state;
+        this.team = state.getTurn();
+        depth = Math.max(1, Math.min(depth, MAX_DEPTH));
+        int count = orderMoves(depth);
+        int bestMove = moves[depth][0];
+        int alpha = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int move = moves[depth][i];
+            state.makeMove(move);
+            int score = minimax(depth - 1, alpha, Integer.MAX_VALUE);
+            state.unmakeMove();
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+            }
+        }
+        return bestMove;
+    }
+
+    private int minimax(int depth, int alpha, int beta) {
+        if (depth == 0 || state.gameOver()) return heuristic();
+        int count = orderMoves(depth);
+        boolean max = state.getTurn() == team;
+        int bestScore = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[depth][i]);
+            int score = minimax(depth - 1, alpha, beta);
+            state.unmakeMove();
+            if (max) {
+                bestScore = Math.max(bestScore, score);
+                alpha = Math.max(alpha, score);
+            } else {
+                bestScore = Math.min(bestScore, score);
+                beta = Math.min(beta, score);
+            }
+            if (beta <= alpha) break;
+        }
+        return bestScore;
+    }
+
+    // Generates the moves for a depth, ordered with points first, then attacks and then the rest
+    private int orderMoves(int depth) {
+        int[] list = moves[depth];
+        int[] keys = order[depth];
+        int turn = state.getTurn();
+        int opponent = (turn == RED) ? BLACK : RED;
+        int count = state.generateMoves(turn, list);
+        for (int i = 0; i < count; i++) {
+            int to = MutableState.to(list[i]);
+            keys[i] = (to == MutableState.OFF_BOARD) ? 2 : (state.getBoardEntry(to) == opponent) ? 1 : 0;
+            // Insertion sort, stable for equal keys
+            int move = list[i];
+            int key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] < key) {
+                list[j + 1] = list[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            list[j + 1] = move;
+            keys[j + 1] = key;
+        }
+        return count;
+    }
+
+    // Either 1000 or -1000 if terminal, or the material of the state, seen from the searching team
+    private int heuristic() {
+        if (state.gameOver()) return (state.getWinner() == team) ? 1000 : -1000;
+        return (state.getTurn() == team) ? state.getMaterial() : -state.getMaterial();
+    }
+}
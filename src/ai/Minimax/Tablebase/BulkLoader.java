@@ -0,0 +1,95 @@
+package ai.Minimax.Tablebase;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Loads many rows into Derby with SYSCS_UTIL.SYSCS_IMPORT_TABLE instead of JDBC batches. The rows are streamed to a
+// temporary file first, which is deleted when the loader is closed. The loads use the connection of the client while
+// synchronized on it, so no probe runs inside a load or a swap
+public class BulkLoader implements Closeable {
+    private TablebaseClient client;
+    private Path file;
+    private BufferedWriter writer;
+    private long rows = 0;
+
+    public BulkLoader(TablebaseClient client) throws IOException {
+        this.client = client;
+        file = Files.createTempFile("kulibrat", ".csv");
+        writer = Files.newBufferedWriter(file);
+    }
+
+    public void addRow(long... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            writer.write(Long.toString(values[i]));
+        }
+        writer.newLine();
+        rows++;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // Imports the rows into an existing table, in one transaction which Derby commits by itself
+    public void importInto(String table) throws SQLException, IOException {
+        writer.flush();
+        synchronized (client) {
+            PreparedStatement stmt = client.getConnection().prepareStatement(
+                    "call SYSCS_UTIL.SYSCS_IMPORT_TABLE(null, ?, ?, null, null, null, 0)");
+            stmt.setString(1, table.toUpperCase());
+            stmt.setString(2, file.toAbsolutePath().toString());
+            stmt.execute();
+            stmt.close();
+        }
+    }
+
+    // Replaces the table by a table of the rows. The rows are loaded into a new table without index, which Derby does
+    // in bulk, and the primary key is added after the load. The new table is then swapped in by one transaction, so a
+    // failed load leaves the old table as it was
+    public void replace(String table, String columns, String primaryKey) throws SQLException, IOException {
+        String newTable = table + "_new";
+        synchronized (client) {
+            Connection conn = client.getConnection();
+            boolean autoCommit = conn.getAutoCommit();
+            try {
+                conn.setAutoCommit(true);
+                dropIfExists(conn, newTable);
+                conn.createStatement().execute("create table " + newTable + " (" + columns + ")");
+                importInto(newTable);
+                conn.createStatement().execute("alter table " + newTable + " add constraint " + table + "_pk" +
+                        System.currentTimeMillis() + " primary key (" + primaryKey + ")");
+                conn.setAutoCommit(false);
+                dropIfExists(conn, table);
+                conn.createStatement().execute("rename table " + newTable + " to " + table);
+                conn.commit();
+            } catch (SQLException | IOException e) {
+                if (!conn.getAutoCommit()) conn.rollback();
+                conn.setAutoCommit(true);
+                dropIfExists(conn, newTable);
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static void dropIfExists(Connection conn, String table) {
+        try {
+            conn.createStatement().execute("drop table " + table);
+        } catch (SQLException e) {
+            // The table doesn't exist
+        }
+    }
+
+    public void close() throws IOException {
+        writer.close();
+        Files.deleteIfExists(file);
+    }
+}
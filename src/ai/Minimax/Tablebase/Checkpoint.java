@@ -0,0 +1,100 @@
+package ai.Minimax.Tablebase;
+
+import misc.Globals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// The layers solved by a build which hasn't finished, so an interrupted build resumes where it stopped instead of
+// starting over. Every layer is saved to its own file as soon as it is solved, and then listed in the manifest. Both
+// are written under a temporary name and moved in place, so a crash leaves either the old or the new file, and a
+// layer only counts once the manifest lists it. The first line of the manifest is the board the layers are for
+public class Checkpoint {
+    private static final String MANIFEST = "manifest.txt";
+    private Path dir;
+    private ArrayList<String> layers = new ArrayList<>(); // Saved layers as "needRed needBlack"
+
+    // Opens the checkpoint in the directory, or starts an empty one if there is none or it is for another board
+    public Checkpoint(String path) throws IOException {
+        dir = Paths.get(path);
+        Files.createDirectories(dir);
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return;
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(getBoard())) {
+            System.err.println("The checkpoint in '" + path + "' is for a different board. Starting over");
+            return;
+        }
+        layers.addAll(lines.subList(1, lines.size()));
+    }
+
+    public synchronized int getLayerCount() {
+        return layers.size();
+    }
+
+    // Saves a solved layer. May be called from any of the worker threads of the solver
+    public synchronized void save(int needRed, int needBlack, short[] scores) throws IOException {
+        String layer = needRed + " " + needBlack;
+        if (layers.contains(layer)) return;
+        ByteBuffer buffer = ByteBuffer.allocate(scores.length * 2);
+        buffer.asShortBuffer().put(scores);
+        writeAtomically(dir.resolve(getFileName(needRed, needBlack)), buffer.array());
+        layers.add(layer);
+        StringBuilder manifest = new StringBuilder(getBoard()).append('\n');
+        for (String l : layers) manifest.append(l).append('\n');
+        writeAtomically(dir.resolve(MANIFEST), manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Copies the saved layers the solver doesn't have yet into the solver. Returns the amount of layers copied
+    public synchronized int load(RetrogradeSolver solver) throws IOException {
+        int loaded = 0;
+        for (String layer : layers) {
+            String[] points = layer.split(" ");
+            int needRed = Integer.parseInt(points[0]);
+            int needBlack = Integer.parseInt(points[1]);
+            if (solver.isSolved(needRed, needBlack)) continue;
+            byte[] data = Files.readAllBytes(dir.resolve(getFileName(needRed, needBlack)));
+            if (data.length != PositionIndex.getLayerSize() * 2)
+                throw new IOException("The checkpoint of layer " + layer + " has the wrong size");
+            short[] scores = new short[PositionIndex.getLayerSize()];
+            ByteBuffer.wrap(data).asShortBuffer().get(scores);
+            solver.setLayer(needRed, needBlack, scores);
+            loaded++;
+        }
+        return loaded;
+    }
+
+    // Removes the checkpoint, once the layers are stored for good
+    public synchronized void delete() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(dir);
+        layers.clear();
+    }
+
+    private static String getFileName(int needRed, int needBlack) {
+        return "layer_" + needRed + "_" + needBlack + ".bin";
+    }
+
+    private static String getBoard() {
+        return Globals.bHeight + " " + Globals.bWidth + " " + Globals.piece_amount + " " + PositionIndex.getLayerSize();
+    }
+
+    // Writes the file next to its final name, forces it to the disk and then moves it in place
+    private static void writeAtomically(Path path, byte[] data) throws IOException {
+        Path temp = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
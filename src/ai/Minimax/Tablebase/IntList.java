@@ -0,0 +1,26 @@
+package ai.Minimax.Tablebase;
+
+import java.util.Arrays;
+
+// Growable list of primitive ints, used for the large edge and event lists of the solvers
+class IntList {
+    private int[] values;
+    private int size = 0;
+
+    IntList() {
+        values = new int[16];
+    }
+
+    void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+}
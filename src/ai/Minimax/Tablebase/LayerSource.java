@@ -0,0 +1,7 @@
+package ai.Minimax.Tablebase;
+
+// A table which can hand out a whole layer of scores at once, for the positions needing the given points
+public interface LayerSource extends ScoreTable {
+    // The scores by rank, or null if the layer isn't there
+    short[] getLayer(int needRed, int needBlack);
+}
@@ -0,0 +1,72 @@
+package ai.Minimax.Tablebase;
+
+import ai.Minimax.MinimaxPlay;
+import game.Move;
+
+import java.util.ArrayList;
+
+import static misc.Globals.RED;
+
+// The scores of the positions after every legal move of a position, in the order of the legal moves. The positions
+// which end the game score 2000 for RED and -2000 for BLACK
+public class MoveScores {
+    private int turn;
+    private ArrayList<Move> moves;
+    private int[] scores;
+    private boolean[] terminal;
+
+    public MoveScores(int turn, ArrayList<Move> moves, int[] scores, boolean[] terminal) {
+        this.turn = turn;
+        this.moves = moves;
+        this.scores = scores;
+        this.terminal = terminal;
+    }
+
+    public ArrayList<Move> getMoves() {
+        return moves;
+    }
+
+    public int getScore(Move move) {
+        return scores[indexOf(move)];
+    }
+
+    public boolean isTerminal(Move move) {
+        return terminal[indexOf(move)];
+    }
+
+    private int indexOf(Move move) {
+        int index = moves.indexOf(move);
+        if (index == -1) throw new IllegalArgumentException("Not a legal move of the position: " + move);
+        return index;
+    }
+
+    // The first move with the best score for the player to move, the same way as the minimax of the lookup table
+    // used to pick it. The score is that of the position itself
+    public MinimaxPlay getBestPlay() {
+        int best = -1;
+        int bestScore = (turn == RED) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int score = scores[i];
+            if (score > 1000) score--;
+            else if (score < -1000) score++;
+            if ((turn == RED) ? score > bestScore : score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        if (best == -1) return null;
+        return new MinimaxPlay(moves.get(best), bestScore, 0);
+    }
+
+    // All moves which are as good as the best move, which are the winning moves if the game can be won right away
+    public ArrayList<Move> getBestMoves() {
+        ArrayList<Move> bestMoves = new ArrayList<>();
+        MinimaxPlay bestPlay = getBestPlay();
+        if (bestPlay == null) return bestMoves;
+        int bestScore = scores[moves.indexOf(bestPlay.move)];
+        for (int i = 0; i < moves.size(); i++) {
+            if (scores[i] == bestScore) bestMoves.add(moves.get(i));
+        }
+        return bestMoves;
+    }
+}
@@ -0,0 +1,61 @@
+package ai.Minimax.Tablebase;
+
+import game.MutableState;
+import misc.Globals;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// Ranks the positions of a score layer densely. Boards are numbered among all boards with at most piece_amount
+// pieces of each team, and the rank of a position is boardIndex * 2 + (turn - 1)
+public class PositionIndex {
+    private static final int[] boardCodes; // Board code of each board index
+    private static final int[] boardIndices; // Board index of each board code, or -1 if the board is impossible
+
+    static {
+        int codes = 1;
+        for (int i = 0; i < MutableState.CELLS; i++) codes *= 3;
+        boardIndices = new int[codes];
+        int count = 0;
+        for (int code = 0; code < codes; code++) {
+            boardIndices[code] = validBoard(code) ? count++ : -1;
+        }
+        boardCodes = new int[count];
+        for (int code = 0; code < codes; code++) {
+            if (boardIndices[code] != -1) boardCodes[boardIndices[code]] = code;
+        }
+    }
+
+    private static boolean validBoard(int code) {
+        int red = 0;
+        int black = 0;
+        for (int i = 0; i < MutableState.CELLS; i++) {
+            if (code % 3 == RED) red++;
+            else if (code % 3 == BLACK) black++;
+            code /= 3;
+        }
+        return red <= Globals.piece_amount && black <= Globals.piece_amount;
+    }
+
+    public static int getBoardCount() {
+        return boardCodes.length;
+    }
+
+    // Amount of positions in a score layer
+    public static int getLayerSize() {
+        return boardCodes.length * 2;
+    }
+
+    public static int rank(MutableState state) {
+        return boardIndices[state.getBoardCode()] * 2 + state.getTurn() - 1;
+    }
+
+    // Sets up the position with the given rank and scores
+    public static void unrank(int rank, MutableState state, int redScore, int blackScore, int scoreLimit) {
+        state.set(boardCodes[rank / 2], rank % 2 + 1, redScore, blackScore, scoreLimit);
+    }
+
+    public static int getTurn(int rank) {
+        return rank % 2 + 1;
+    }
+}
@@ -0,0 +1,7 @@
+package ai.Minimax.Tablebase;
+
+// Receives the progress of a tablebase build. It may be called from any of the worker threads
+public interface ProgressListener {
+    // Times are in milliseconds, and eta is -1 while it can't be estimated yet
+    void progress(String stage, long done, long total, long elapsed, long eta);
+}
@@ -0,0 +1,331 @@
+package ai.Minimax.Tablebase;
+
+import game.MutableState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// Solves Kulibrat by retrograde analysis over the enumerated positions, instead of repeated iterative deepening.
+// The value of a position only depends on the board, the turn and the points each team still needs, so the positions
+// are layered by the points needed, and one solver answers every score limit up to the highest one solved. Scores
+// never decrease, so a layer only depends on itself and on layers needing fewer points, which are solved first.
+// Within a layer the results are propagated backwards from the known positions, using predecessor lists and a counter
+// of unresolved children per position, in order of distance
+public class RetrogradeSolver implements LayerSource {
+    private static final int UNRESOLVED = 0;
+    private static final int RESOLVED = 1;
+    private static final int SKIPPED = 2; // Terminal, or the player to move has no move, so never a position in play
+    private static final int CHUNK = 4096; // Positions or events handled by one task
+    private short[][][] layers = new short[1][1][]; // Scores per points needed by RED and BLACK, indexed by rank
+    private ForkJoinPool pool;
+    private ProgressListener listener;
+    private Checkpoint checkpoint; // Saves every solved layer, if set
+    private AtomicInteger solvedLayers = new AtomicInteger();
+    private long startTime;
+
+    public RetrogradeSolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public RetrogradeSolver(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    // Solves the layers needed for the score limit which aren't solved yet, from the fewest points needed up. The
+    // layers needing the same total of points don't depend on each other, so they are solved in parallel, and every
+    // layer is split into ranges of positions
+    public void solve(int scoreLimit) {
+        ensureCapacity(scoreLimit);
+        startTime = System.currentTimeMillis();
+        solvedLayers.set(0);
+        int newLayers = 0;
+        for (int needRed = 1; needRed <= scoreLimit; needRed++) {
+            for (int needBlack = 1; needBlack <= scoreLimit; needBlack++) {
+                if (!isSolved(needRed, needBlack)) newLayers++;
+            }
+        }
+        for (int total = 2; total <= 2 * scoreLimit; total++) {
+            ArrayList<LayerTask> tasks = new ArrayList<>();
+            for (int needRed = Math.max(1, total - scoreLimit); needRed <= Math.min(scoreLimit, total - 1); needRed++) {
+                if (!isSolved(needRed, total - needRed))
+                    tasks.add(new LayerTask(needRed, total - needRed, scoreLimit, newLayers));
+            }
+            pool.invoke(new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    // Whether every layer needed for the score limit is solved
+    public boolean isComplete(int scoreLimit) {
+        for (int needRed = 1; needRed <= scoreLimit; needRed++) {
+            for (int needBlack = 1; needBlack <= scoreLimit; needBlack++) {
+                if (!isSolved(needRed, needBlack)) return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isSolved(int needRed, int needBlack) {
+        return needRed < layers.length && needBlack < layers.length && layers[needRed][needBlack] != null;
+    }
+
+    public short[] getLayer(int needRed, int needBlack) {
+        return isSolved(needRed, needBlack) ? layers[needRed][needBlack] : null;
+    }
+
+    // Sets a layer solved elsewhere, like one stored in the DB
+    public void setLayer(int needRed, int needBlack, short[] scores) {
+        ensureCapacity(Math.max(needRed, needBlack));
+        layers[needRed][needBlack] = scores;
+    }
+
+    private void ensureCapacity(int scoreLimit) {
+        if (scoreLimit < layers.length) return;
+        short[][][] newLayers = new short[scoreLimit + 1][scoreLimit + 1][];
+        for (int needRed = 0; needRed < layers.length; needRed++) {
+            System.arraycopy(layers[needRed], 0, newLayers[needRed], 0, layers.length);
+        }
+        layers = newLayers;
+    }
+
+    private void report(String stage, long done, long total) {
+        if (listener == null) return;
+        long elapsed = System.currentTimeMillis() - startTime;
+        long eta = (done == 0) ? -1 : elapsed * (total - done) / done;
+        listener.progress(stage, done, total, elapsed, eta);
+    }
+
+    // Solves one layer, and stores it in the layers when done. The positions are set up with the scores which need
+    // the given points to reach the score limit
+    private class LayerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int needRed;
+        private int needBlack;
+        private int redScore;
+        private int blackScore;
+        private int scoreLimit;
+        private int newLayers;
+        private int size = PositionIndex.getLayerSize();
+        private short[] scores = new short[size];
+        private AtomicIntegerArray status = new AtomicIntegerArray(size);
+        private AtomicIntegerArray counter = new AtomicIntegerArray(size); // Children inside the layer not resolved yet
+        private int[] childCount = new int[size]; // Children inside the layer
+        private int[] lossDistance = new int[size]; // Longest distance among the losing children outside the layer
+        private boolean[] safe = new boolean[size]; // Has a drawn or won child outside the layer, so it can't be lost
+        private IntList[] chunkEdges = new IntList[(size + CHUNK - 1) / CHUNK]; // Children inside the layer per chunk
+        private ArrayList<IntList> buckets = new ArrayList<>(); // Events per distance, as rank * 2 + 1 for losses
+        private ConcurrentLinkedQueue<IntList> newEvents = new ConcurrentLinkedQueue<>(); // Pairs of distance, event
+
+        LayerTask(int needRed, int needBlack, int scoreLimit, int newLayers) {
+            this.needRed = needRed;
+            this.needBlack = needBlack;
+            this.scoreLimit = scoreLimit;
+            this.newLayers = newLayers;
+            redScore = scoreLimit - needRed;
+            blackScore = scoreLimit - needBlack;
+        }
+
+        protected void compute() {
+            // Generate the moves, and seed the positions with known children
+            new RangeTask(0, size, this::seed).invoke();
+            collectEvents();
+
+            // Reverse the edges into predecessor lists
+            AtomicIntegerArray predCount = new AtomicIntegerArray(size + 1);
+            new RangeTask(0, size, (from, to) -> {
+                IntList edges = chunkEdges[from / CHUNK];
+                int e = 0;
+                for (int p = from; p < to; p++) {
+                    for (int i = 0; i < childCount[p]; i++) predCount.incrementAndGet(edges.get(e++) + 1);
+                }
+            }).invoke();
+            int[] predStart = new int[size + 1];
+            for (int p = 0; p < size; p++) predStart[p + 1] = predStart[p] + predCount.get(p + 1);
+            int[] preds = new int[predStart[size]];
+            AtomicIntegerArray fill = new AtomicIntegerArray(size);
+            new RangeTask(0, size, (from, to) -> {
+                IntList edges = chunkEdges[from / CHUNK];
+                int e = 0;
+                for (int p = from; p < to; p++) {
+                    for (int i = 0; i < childCount[p]; i++) {
+                        int child = edges.get(e++);
+                        preds[predStart[child] + fill.getAndIncrement(child)] = p;
+                    }
+                }
+            }).invoke();
+            chunkEdges = null;
+
+            // Propagate the results backwards, one distance at a time
+            for (int distance = 1; distance < buckets.size(); distance++) {
+                IntList bucket = buckets.get(distance);
+                if (bucket == null) continue;
+                int d = distance;
+                new RangeTask(0, bucket.size(), (from, to) -> {
+                    IntList events = new IntList();
+                    for (int i = from; i < to; i++) {
+                        int p = bucket.get(i) / 2;
+                        if (!status.compareAndSet(p, UNRESOLVED, RESOLVED)) continue;
+                        int turn = PositionIndex.getTurn(p);
+                        int winner = (bucket.get(i) % 2 == 1) ? opponent(turn) : turn;
+                        scores[p] = toScore(winner, d);
+                        for (int e = predStart[p]; e < predStart[p + 1]; e++) {
+                            int q = preds[e];
+                            if (status.get(q) != UNRESOLVED) continue;
+                            if (PositionIndex.getTurn(q) == winner) {
+                                events.add(d + 1);
+                                events.add(q * 2);
+                            } else if (counter.decrementAndGet(q) == 0 && !safe[q]) {
+                                events.add(Math.max(d + 1, lossDistance[q]));
+                                events.add(q * 2 + 1);
+                            }
+                        }
+                    }
+                    if (events.size() > 0) newEvents.add(events);
+                }).invoke();
+                buckets.set(distance, null);
+                collectEvents();
+            }
+            layers[needRed][needBlack] = scores;
+            if (checkpoint != null) {
+                // The layer is still solved if saving it fails, it just has to be solved again after a crash
+                try {
+                    checkpoint.save(needRed, needBlack, scores);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            report("Solving layers", solvedLayers.incrementAndGet(), newLayers);
+        }
+
+        private void seed(int from, int to) {
+            MutableState state = new MutableState();
+            int[] moves = new int[MutableState.MAX_MOVES];
+            IntList edges = new IntList();
+            IntList events = new IntList();
+            for (int p = from; p < to; p++) {
+                PositionIndex.unrank(p, state, redScore, blackScore, scoreLimit);
+                int turn = state.getTurn();
+                if (state.gameOver() || !state.hasMoves(turn)) {
+                    status.set(p, SKIPPED);
+                    continue;
+                }
+                int count = state.generateMoves(turn, moves);
+                int minWin = Integer.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    state.makeMove(moves[i]);
+                    int childScore;
+                    if (state.gameOver()) {
+                        childScore = (state.getWinner() == RED) ? 2000 : -2000;
+                    } else if (state.getScore(RED) != redScore || state.getScore(BLACK) != blackScore) {
+                        childScore = getScore(state);
+                    } else {
+                        edges.add(PositionIndex.rank(state));
+                        childCount[p]++;
+                        state.unmakeMove();
+                        continue;
+                    }
+                    state.unmakeMove();
+                    int winner = getWinner(childScore);
+                    int distance = getDistance(childScore) + 1;
+                    if (winner == 0) safe[p] = true;
+                    else if (winner == turn) minWin = Math.min(minWin, distance);
+                    else lossDistance[p] = Math.max(lossDistance[p], distance);
+                }
+                counter.set(p, childCount[p]);
+                if (minWin != Integer.MAX_VALUE) {
+                    safe[p] = true;
+                    events.add(minWin);
+                    events.add(p * 2);
+                } else if (childCount[p] == 0 && !safe[p]) {
+                    events.add(lossDistance[p]);
+                    events.add(p * 2 + 1);
+                }
+            }
+            chunkEdges[from / CHUNK] = edges;
+            if (events.size() > 0) newEvents.add(events);
+        }
+
+        // Moves the events found by the tasks into the buckets
+        private void collectEvents() {
+            IntList events;
+            while ((events = newEvents.poll()) != null) {
+                for (int i = 0; i < events.size(); i += 2) schedule(buckets, events.get(i), events.get(i + 1));
+            }
+        }
+    }
+
+    private interface RangeBody {
+        void run(int from, int to);
+    }
+
+    // Splits a range of indices into chunks aligned to CHUNK, so that a chunk can be identified by from / CHUNK
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int from;
+        private int to;
+        private RangeBody body;
+
+        RangeTask(int from, int to, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                body.run(from, to);
+                return;
+            }
+            int mid = from + (to - from + CHUNK - 1) / CHUNK / 2 * CHUNK;
+            invokeAll(new RangeTask(from, mid, body), new RangeTask(mid, to, body));
+        }
+    }
+
+    private static void schedule(ArrayList<IntList> buckets, int distance, int event) {
+        while (buckets.size() <= distance) buckets.add(null);
+        if (buckets.get(distance) == null) buckets.set(distance, new IntList());
+        buckets.get(distance).add(event);
+    }
+
+    // Score of a solved, non terminal position
+    public int getScore(MutableState state) {
+        int limit = state.getScoreLimit();
+        return layers[limit - state.getScore(RED)][limit - state.getScore(BLACK)][PositionIndex.rank(state)];
+    }
+
+    private static int opponent(int team) {
+        return (team == RED) ? BLACK : RED;
+    }
+
+    static short toScore(int winner, int distance) {
+        if (distance >= 1000) throw new IllegalStateException("Distance to end too large for the score: " + distance);
+        return (short) ((winner == RED) ? 2000 - distance : -2000 + distance);
+    }
+
+    static int getWinner(int score) {
+        return (score > 0) ? RED : (score < 0) ? BLACK : 0;
+    }
+
+    static int getDistance(int score) {
+        return (score == 0) ? 0 : 2000 - Math.abs(score);
+    }
+}
@@ -0,0 +1,57 @@
+package ai.Minimax.Tablebase;
+
+import ai.Minimax.MinimaxPlay;
+import game.Move;
+import game.MutableState;
+import game.State;
+
+import java.util.ArrayList;
+
+import static misc.Globals.RED;
+
+// A table of solved positions. Scores follow the lookup table: 2000 - d if RED wins in d plies, -2000 + d if BLACK
+// does, and 0 for a draw
+public interface ScoreTable {
+    // Score of a non terminal position
+    int getScore(MutableState state);
+
+    // Scores of several non terminal positions. Tables which can probe them at once override this
+    default int[] getScores(MutableState[] states) {
+        int[] scores = new int[states.length];
+        for (int i = 0; i < states.length; i++) scores[i] = getScore(states[i]);
+        return scores;
+    }
+
+    // The scores of the positions after every legal move, probed together
+    default MoveScores getMoveScores(State state) {
+        MutableState simState = new MutableState(state);
+        int turn = simState.getTurn();
+        int[] moves = new int[MutableState.MAX_MOVES];
+        int count = simState.generateMoves(turn, moves);
+        ArrayList<Move> moveList = new ArrayList<>();
+        int[] scores = new int[count];
+        boolean[] terminal = new boolean[count];
+        ArrayList<MutableState> children = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            moveList.add(MutableState.decode(moves[i], turn));
+            MutableState child = new MutableState(state);
+            child.makeMove(moves[i]);
+            if (child.gameOver()) {
+                terminal[i] = true;
+                scores[i] = (child.getWinner() == RED) ? 2000 : -2000;
+            } else {
+                children.add(child);
+            }
+        }
+        int[] childScores = getScores(children.toArray(new MutableState[0]));
+        for (int i = 0, j = 0; i < count; i++) {
+            if (!terminal[i]) scores[i] = childScores[j++];
+        }
+        return new MoveScores(turn, moveList, scores, terminal);
+    }
+
+    // See MoveScores.getBestPlay
+    default MinimaxPlay getBestPlay(State state) {
+        return getMoveScores(state).getBestPlay();
+    }
+}
@@ -0,0 +1,128 @@
+package ai.Minimax.Tablebase;
+
+import game.MutableState;
+import game.State;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// The tablebase of one game, which keeps the layers it probes in memory as shards. A position and its children only
+// span its own layer and the layers needing one point less, so those shards are loaded from the source when the game
+// enters a layer, and a probe is an array read. Loading a layer from the DB takes a while, so it is done in the
+// background, and probes go to the source until the shard is there. Scores never decrease, so once the game is in a
+// layer, the layers needing more points for either team can't be reached any more, and their shards are dropped.
+// So every game has its own instance, which the board and the AIs of the game share, while concurrent games only
+// share the tablebase in the DB and its client
+public class ShardedTablebase implements ScoreTable {
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Shard loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private TablebaseClient client;
+    private LayerSource source;
+    private HashMap<Integer, short[]> shards = new HashMap<>(); // By needRed * 256 + needBlack
+    private HashSet<Integer> requested = new HashSet<>(); // Layers being loaded
+    private long loads = 0;
+    private long evictions = 0;
+
+    public ShardedTablebase(LayerSource source) {
+        this.source = source;
+    }
+
+    // Over the tablebase in the DB, which is only connected to once the game probes it
+    public ShardedTablebase(TablebaseClient client) {
+        this.client = client;
+    }
+
+    private synchronized LayerSource getSource() throws SQLException {
+        if (source == null) source = new Tablebase(client);
+        return source;
+    }
+
+    public int getScore(MutableState state) {
+        return getScores(new MutableState[]{state})[0];
+    }
+
+    // The positions of the shards in memory are read from them, the rest are probed from the source at once
+    public int[] getScores(MutableState[] states) {
+        int[] scores = new int[states.length];
+        ArrayList<Integer> misses = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < states.length; i++) {
+                short[] shard = getShard(states[i].getScoreLimit() - states[i].getScore(RED),
+                        states[i].getScoreLimit() - states[i].getScore(BLACK));
+                if (shard != null) scores[i] = shard[PositionIndex.rank(states[i])];
+                else misses.add(i);
+            }
+        }
+        if (misses.isEmpty()) return scores;
+        MutableState[] missed = new MutableState[misses.size()];
+        for (int i = 0; i < missed.length; i++) missed[i] = states[misses.get(i)];
+        int[] missedScores;
+        try {
+            missedScores = getSource().getScores(missed);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            missedScores = new int[missed.length];
+        }
+        for (int i = 0; i < missed.length; i++) scores[misses.get(i)] = missedScores[i];
+        return scores;
+    }
+
+    // The moves are probed from the current position of the game, so this is where the game enters a layer
+    public MoveScores getMoveScores(State state) {
+        enter(state.getScoreLimit() - state.getScore(RED), state.getScoreLimit() - state.getScore(BLACK));
+        return ScoreTable.super.getMoveScores(state);
+    }
+
+    // Moves the game to the layer. Drops the shards it can't reach from there, and starts loading the shards the
+    // position and its children are in
+    public synchronized void enter(int needRed, int needBlack) {
+        for (Integer layer : new ArrayList<>(shards.keySet())) {
+            if (layer / 256 > needRed || layer % 256 > needBlack) {
+                shards.remove(layer);
+                evictions++;
+            }
+        }
+        requested.removeIf(layer -> layer / 256 > needRed || layer % 256 > needBlack);
+        getShard(needRed, needBlack);
+        if (needRed > 1) getShard(needRed - 1, needBlack);
+        if (needBlack > 1) getShard(needRed, needBlack - 1);
+    }
+
+    // The shard of the layer, or null if it isn't loaded yet, in which case it is requested
+    private short[] getShard(int needRed, int needBlack) {
+        int layer = needRed * 256 + needBlack;
+        short[] shard = shards.get(layer);
+        if (shard == null && requested.add(layer)) {
+            loader.execute(() -> {
+                short[] scores = null;
+                try {
+                    scores = getSource().getLayer(needRed, needBlack);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                synchronized (this) {
+                    // The game may have left the layer behind while it was loading. A layer the source doesn't have
+                    // is requested again later, as it may have been stored since
+                    if (!requested.remove(layer) || scores == null) return;
+                    shards.put(layer, scores);
+                    loads++;
+                }
+            });
+        }
+        return shard;
+    }
+
+    public synchronized String getStats() {
+        return "Shards in memory: " + shards.size() + ", loaded: " + loads + ", evicted: " + evictions;
+    }
+}
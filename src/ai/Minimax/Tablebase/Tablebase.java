@@ -0,0 +1,156 @@
+package ai.Minimax.Tablebase;
+
+import game.MutableState;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// The tablebase in the DB, shared by all score limits. Positions are stored by the points each team still needs
+// instead of by score, so building a higher score limit only adds the layers the lower limits don't have. Draws aren't
+// stored, and a layer is only listed in tablebase_layers once all of its positions are
+public class Tablebase implements LayerSource {
+    private static final String LAYER_QUERY = "select position, score from tablebase where needRed = ? and needBlack = ?";
+    private TablebaseClient client;
+
+    public Tablebase(TablebaseClient client) throws SQLException {
+        this.client = client;
+        Connection conn = client.getConnection();
+        try {
+            conn.createStatement().execute("create table tablebase (needRed smallint, needBlack smallint, " +
+                    "position int, score smallint, primary key (needRed, needBlack, position))");
+            conn.createStatement().execute("create table tablebase_layers (needRed smallint, needBlack smallint, " +
+                    "primary key (needRed, needBlack))");
+        } catch (SQLException e) {
+            // The tables exist already
+        }
+    }
+
+    public boolean isSolved(int needRed, int needBlack) throws SQLException {
+        return client.queryInt("select count(*) from tablebase_layers where needRed = ? and needBlack = ?",
+                needRed, needBlack) > 0;
+    }
+
+    // Whether every layer needed for the score limit is stored
+    public boolean isComplete(int scoreLimit) {
+        try {
+            return client.queryInt("select count(*) from tablebase_layers where needRed <= ? and needBlack <= ?",
+                    scoreLimit, scoreLimit) == scoreLimit * scoreLimit;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Loads the stored layers needed for the score limit into the solver, so they aren't solved again
+    public void load(RetrogradeSolver solver, int scoreLimit) throws SQLException {
+        for (int needRed = 1; needRed <= scoreLimit; needRed++) {
+            for (int needBlack = 1; needBlack <= scoreLimit; needBlack++) {
+                if (solver.isSolved(needRed, needBlack) || !isSolved(needRed, needBlack)) continue;
+                solver.setLayer(needRed, needBlack, queryLayer(needRed, needBlack));
+            }
+        }
+    }
+
+    // The scores of a stored layer by rank, or null if the layer isn't stored or can't be read. The layer is read on
+    // its own connection, so probes can go on meanwhile
+    public short[] getLayer(int needRed, int needBlack) {
+        try {
+            if (!isSolved(needRed, needBlack)) return null;
+            Connection conn = client.getLayerConnection();
+            synchronized (conn) {
+                try (PreparedStatement stmt = conn.prepareStatement(LAYER_QUERY)) {
+                    return queryLayer(stmt, needRed, needBlack);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private short[] queryLayer(int needRed, int needBlack) throws SQLException {
+        synchronized (client) {
+            return queryLayer(client.prepare(LAYER_QUERY), needRed, needBlack);
+        }
+    }
+
+    private static short[] queryLayer(PreparedStatement stmt, int needRed, int needBlack) throws SQLException {
+        short[] scores = new short[PositionIndex.getLayerSize()];
+        stmt.setInt(1, needRed);
+        stmt.setInt(2, needBlack);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) {
+                scores[resultSet.getInt(1)] = resultSet.getShort(2);
+            }
+        }
+        return scores;
+    }
+
+    // Stores the layers of the solver needed for the score limit which aren't stored yet. The rows are bulk loaded in
+    // one import, and the layers are listed afterwards. Rows of layers which were never listed, because a build
+    // stopped before that, are deleted first
+    public void store(RetrogradeSolver solver, int scoreLimit) throws SQLException, IOException {
+        synchronized (client) {
+            client.getConnection().createStatement().execute("delete from tablebase t where not exists " +
+                    "(select * from tablebase_layers l where l.needRed = t.needRed and l.needBlack = t.needBlack)");
+        }
+        ArrayList<int[]> layers = new ArrayList<>();
+        try (BulkLoader loader = new BulkLoader(client)) {
+            for (int needRed = 1; needRed <= scoreLimit; needRed++) {
+                for (int needBlack = 1; needBlack <= scoreLimit; needBlack++) {
+                    if (!solver.isSolved(needRed, needBlack) || isSolved(needRed, needBlack)) continue;
+                    short[] scores = solver.getLayer(needRed, needBlack);
+                    for (int position = 0; position < scores.length; position++) {
+                        if (scores[position] != 0) loader.addRow(needRed, needBlack, position, scores[position]);
+                    }
+                    layers.add(new int[]{needRed, needBlack});
+                }
+            }
+            synchronized (client) {
+                if (loader.getRows() > 0) loader.importInto("tablebase");
+                PreparedStatement stmt = client.getConnection().prepareStatement(
+                        "insert into tablebase_layers values (?, ?)");
+                for (int[] layer : layers) {
+                    stmt.setInt(1, layer[0]);
+                    stmt.setInt(2, layer[1]);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                stmt.close();
+            }
+        }
+        client.clearCache();
+    }
+
+    public int getScore(MutableState state) {
+        try {
+            return client.queryScore(state.getScoreLimit() - state.getScore(RED),
+                    state.getScoreLimit() - state.getScore(BLACK), PositionIndex.rank(state));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // All positions are fetched by one query
+    public int[] getScores(MutableState[] states) {
+        int[] needRed = new int[states.length];
+        int[] needBlack = new int[states.length];
+        int[] positions = new int[states.length];
+        for (int i = 0; i < states.length; i++) {
+            needRed[i] = states[i].getScoreLimit() - states[i].getScore(RED);
+            needBlack[i] = states[i].getScoreLimit() - states[i].getScore(BLACK);
+            positions[i] = PositionIndex.rank(states[i]);
+        }
+        try {
+            return client.queryScores(needRed, needBlack, positions);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new int[states.length];
+        }
+    }
+}
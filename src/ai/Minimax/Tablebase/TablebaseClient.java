@@ -0,0 +1,177 @@
+package ai.Minimax.Tablebase;
+
+import ai.Minimax.MinimaxPlay;
+import game.Move;
+import misc.Globals;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The one connection of the app to the DB. Prepared statements are kept per SQL string, and the recently probed
+// positions are kept per table in a bounded LRU cache. All access to the connection is synchronized on the client
+public class TablebaseClient {
+    private static TablebaseClient instance;
+    private Connection conn;
+    private Connection layerConn;
+    private HashMap<String, PreparedStatement> statements = new HashMap<>();
+    private HashMap<String, LinkedHashMap<Long, Object>> caches = new HashMap<>();
+    private int cacheSize = 100000; // Positions per table
+    private long hits = 0;
+    private long misses = 0;
+
+    private TablebaseClient() {
+    }
+
+    public static synchronized TablebaseClient getInstance() {
+        if (instance == null) instance = new TablebaseClient();
+        return instance;
+    }
+
+    // Connects on the first call. Booting Derby might take some time
+    public synchronized Connection getConnection() throws SQLException {
+        if (conn == null || conn.isClosed()) {
+            System.out.println("Connecting to database. This might take some time");
+            conn = DriverManager.getConnection(Globals.JDBC_URL);
+            statements.clear();
+            System.out.println("Connection successful");
+        }
+        return conn;
+    }
+
+    // A second connection for reading whole layers, which takes long enough that the probes on the main connection
+    // shouldn't wait for it. It must only be used while synchronized on the connection
+    public synchronized Connection getLayerConnection() throws SQLException {
+        if (layerConn == null || layerConn.isClosed()) layerConn = DriverManager.getConnection(Globals.JDBC_URL);
+        return layerConn;
+    }
+
+    // The statement is shared, so it must only be used while synchronized on the client
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = getConnection().prepareStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    // The first column of the first row of the query, or 0 if there are no rows
+    public synchronized int queryInt(String sql, int... params) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        for (int i = 0; i < params.length; i++) stmt.setInt(i + 1, params[i]);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    // Fetches the best play of a position from a plays table, or null if it isn't there
+    public synchronized MinimaxPlay queryPlay(String tableName, long key) throws SQLException {
+        LinkedHashMap<Long, Object> cache = getCache(tableName);
+        if (cache.containsKey(key)) {
+            hits++;
+            return (MinimaxPlay) cache.get(key);
+        }
+        misses++;
+        PreparedStatement stmt = prepare("select oldRow, oldCol, newRow, newCol, team, score from " + tableName +
+                " where id = ?");
+        stmt.setLong(1, key);
+        MinimaxPlay play = null;
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            if (resultSet.next()) {
+                Move move = new Move(resultSet.getInt(1), resultSet.getInt(2),
+                        resultSet.getInt(3), resultSet.getInt(4), resultSet.getInt(5));
+                play = new MinimaxPlay(move, resultSet.getInt(6), 0);
+            }
+        }
+        cache.put(key, play);
+        return play;
+    }
+
+    // Fetches the score of a position from the shared tablebase. Positions which aren't stored are draws
+    public synchronized int queryScore(int needRed, int needBlack, int position) throws SQLException {
+        LinkedHashMap<Long, Object> cache = getCache("tablebase");
+        long key = ((long) (needRed * 256 + needBlack) << 32) | position;
+        Object score = cache.get(key);
+        if (score != null) {
+            hits++;
+            return (Integer) score;
+        }
+        misses++;
+        score = queryInt("select score from tablebase where needRed = ? and needBlack = ? and position = ?",
+                needRed, needBlack, position);
+        cache.put(key, score);
+        return (Integer) score;
+    }
+
+    // Fetches the scores of several positions of the shared tablebase at once. The positions which aren't cached are
+    // fetched by one query, with one part per position so every part is a lookup in the primary key
+    public synchronized int[] queryScores(int[] needRed, int[] needBlack, int[] positions) throws SQLException {
+        LinkedHashMap<Long, Object> cache = getCache("tablebase");
+        int[] scores = new int[positions.length];
+        ArrayList<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < positions.length; i++) {
+            Object score = cache.get(((long) (needRed[i] * 256 + needBlack[i]) << 32) | positions[i]);
+            if (score != null) {
+                hits++;
+                scores[i] = (Integer) score;
+            } else {
+                misses++;
+                indices.add(i);
+            }
+        }
+        if (indices.isEmpty()) return scores;
+
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < indices.size(); i++) {
+            if (i > 0) sql.append(" union all ");
+            sql.append("select ").append(i).append(", score from tablebase where needRed = ? and needBlack = ? " +
+                    "and position = ?");
+        }
+        PreparedStatement stmt = prepare(sql.toString());
+        int param = 1;
+        for (int i : indices) {
+            stmt.setInt(param++, needRed[i]);
+            stmt.setInt(param++, needBlack[i]);
+            stmt.setInt(param++, positions[i]);
+        }
+        // Positions without a row are draws
+        for (int i : indices) scores[i] = 0;
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) scores[indices.get(resultSet.getInt(1))] = resultSet.getInt(2);
+        }
+        for (int i : indices) cache.put(((long) (needRed[i] * 256 + needBlack[i]) << 32) | positions[i], scores[i]);
+        return scores;
+    }
+
+    private LinkedHashMap<Long, Object> getCache(String tableName) {
+        LinkedHashMap<Long, Object> cache = caches.get(tableName);
+        if (cache == null) {
+            cache = new LinkedHashMap<Long, Object>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+            caches.put(tableName, cache);
+        }
+        return cache;
+    }
+
+    // Drops the cached positions, e.g. after a table has been rebuilt
+    public synchronized void clearCache() {
+        caches.clear();
+    }
+
+    public synchronized void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        caches.clear();
+    }
+
+    public synchronized String getStats() {
+        long probes = hits + misses;
+        return "Tablebase cache hits: " + hits + ", misses: " + misses +
+                ((probes == 0) ? "" : ", hit rate: " + (hits * 100 / probes) + "%");
+    }
+}
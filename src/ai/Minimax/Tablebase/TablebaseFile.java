@@ -0,0 +1,311 @@
+package ai.Minimax.Tablebase;
+
+import game.MutableState;
+import misc.Globals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.TreeMap;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// The tablebase as a flat file, probed through a memory map instead of the DB. Positions are stored in layers for
+// needRed and then needBlack from 1 to the score limit, and by rank within a layer, so the offset of a position
+// follows from its rank and a probe is a few reads, safe from any thread. After the header the file holds 2 bit planes
+// of win, draw or loss, which are small enough to stay in the cache, and then the distances to the end of the won and
+// lost positions. The distances are either 2 bytes each, or packed in blocks of BLOCK_SIZE positions, each block with
+// the smallest distance and the bits needed for the rest. Best moves are derived from the scores of the children.
+// The app maps the file once and shares it. A mapped file can't be replaced or deleted on Windows, and a mapping is
+// only dropped by the garbage collector, so every rebuild is written to a new file: the path with the next generation
+// appended. The new mapping is then published to the probes at once, and the old files are deleted once they can be
+public class TablebaseFile implements LayerSource {
+    private static final int MAGIC = 0x4B544231; // "KTB1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48; // See write for the fields
+    private static final int BLOCK_SIZE = 256;
+    private static final int BLOCK_HEADER = 3; // Smallest distance in 2 bytes, and the bits per distance
+    private static final int DRAW = 0;
+    private static final int RED_WINS = 1;
+    private static final int BLACK_WINS = 2;
+    private static TablebaseFile instance;
+    private Path path; // Without the generation
+    private volatile Mapping mapping; // Read once per probe, so a probe never mixes two files
+
+    private TablebaseFile(Path path, Path file) throws IOException {
+        this.path = path;
+        mapping = new Mapping(file);
+    }
+
+    // The tablebase file of the app, mapped on the first call. Returns null if it doesn't exist or doesn't fit the
+    // current rules, in which case the next call tries again
+    public static synchronized TablebaseFile getInstance() {
+        if (instance == null) instance = open(Globals.TABLEBASE_PATH);
+        return instance;
+    }
+
+    private static TablebaseFile open(String name) {
+        Path path = Paths.get(name).toAbsolutePath().normalize();
+        try {
+            TreeMap<Integer, Path> files = getGenerations(path);
+            if (files.isEmpty()) return null;
+            TablebaseFile file = new TablebaseFile(path, files.lastEntry().getValue());
+            deleteOldGenerations(path);
+            return file;
+        } catch (IOException e) {
+            System.err.println("Can't use the tablebase file '" + name + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The files of the tablebase by generation. The path itself is generation 0, from before there were generations
+    private static TreeMap<Integer, Path> getGenerations(Path path) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        if (Files.exists(path)) files.put(0, path);
+        String prefix = path.getFileName() + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path.getParent(),
+                file -> file.getFileName().toString().startsWith(prefix))) {
+            for (Path file : stream) {
+                String generation = file.getFileName().toString().substring(prefix.length());
+                if (generation.matches("[0-9]{1,9}")) files.put(Integer.parseInt(generation), file);
+            }
+        }
+        return files;
+    }
+
+    // Deletes all but the newest generation. Files which are still mapped, on Windows, are left for a later call
+    private static void deleteOldGenerations(Path path) throws IOException {
+        TreeMap<Integer, Path> files = getGenerations(path);
+        if (!files.isEmpty()) files.pollLastEntry();
+        for (Path file : files.values()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Still mapped
+            }
+        }
+    }
+
+    // One mapped file, which never changes. Absolute reads of a buffer don't move its position, so any thread can
+    // probe it
+    private static class Mapping {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private final int scoreLimit;
+        private final int layerSize;
+        private final boolean packed;
+        private final int wdlLayerBytes;
+        private final int blocksPerLayer;
+        private final int distanceOffset;
+
+        Mapping(Path file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) throw new IOException("File too small for the header");
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                    throw new IOException("Not a tablebase file of version " + VERSION);
+                if (buffer.getInt(8) != Globals.bHeight || buffer.getInt(12) != Globals.bWidth ||
+                        buffer.getInt(16) != Globals.piece_amount || buffer.getInt(24) != PositionIndex.getLayerSize())
+                    throw new IOException("The tablebase is for a different board or amount of pieces");
+                if (channel.size() != buffer.getInt(36))
+                    throw new IOException("The tablebase is incomplete");
+            }
+            scoreLimit = buffer.getInt(20);
+            layerSize = buffer.getInt(24);
+            packed = buffer.getInt(28) == 1;
+            distanceOffset = buffer.getInt(32);
+            wdlLayerBytes = (layerSize + 3) / 4;
+            blocksPerLayer = (layerSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+
+        int getScore(int layer, int rank) {
+            int wdl = getWdl(layer, rank);
+            if (wdl == DRAW) return 0;
+            return RetrogradeSolver.toScore((wdl == RED_WINS) ? RED : BLACK, getDistance(layer, rank));
+        }
+
+        int getWdl(int layer, int rank) {
+            int b = buffer.get(HEADER_SIZE + layer * wdlLayerBytes + rank / 4);
+            return (b >>> ((rank % 4) * 2)) & 3;
+        }
+
+        int getDistance(int layer, int rank) {
+            if (!packed) return buffer.getShort(distanceOffset + (layer * layerSize + rank) * 2);
+            int block = distanceOffset +
+                    buffer.getInt(distanceOffset + (layer * blocksPerLayer + rank / BLOCK_SIZE) * 4);
+            int base = buffer.getShort(block);
+            int bits = buffer.get(block + 2);
+            if (bits == 0) return base;
+            int bit = (rank % BLOCK_SIZE) * bits;
+            int at = block + BLOCK_HEADER + bit / 8;
+            int window = ((buffer.get(at) & 0xFF) << 16) | ((buffer.get(at + 1) & 0xFF) << 8) |
+                    (buffer.get(at + 2) & 0xFF);
+            return base + ((window >>> (24 - bits - bit % 8)) & ((1 << bits) - 1));
+        }
+
+        int layer(MutableState state) {
+            int needRed = state.getScoreLimit() - state.getScore(RED);
+            int needBlack = state.getScoreLimit() - state.getScore(BLACK);
+            return (needRed - 1) * scoreLimit + needBlack - 1;
+        }
+    }
+
+    // The file the probes read now
+    public Path getFile() {
+        return mapping.file;
+    }
+
+    public int getScoreLimit() {
+        return mapping.scoreLimit;
+    }
+
+    public int getScore(MutableState state) {
+        Mapping mapping = this.mapping;
+        return mapping.getScore(mapping.layer(state), PositionIndex.rank(state));
+    }
+
+    // The winner of a non terminal position with perfect play, or 0 for a draw. Only reads the bit planes
+    public int getWinner(MutableState state) {
+        Mapping mapping = this.mapping;
+        int wdl = mapping.getWdl(mapping.layer(state), PositionIndex.rank(state));
+        return (wdl == RED_WINS) ? RED : (wdl == BLACK_WINS) ? BLACK : 0;
+    }
+
+    // Copies the layers the solver doesn't have yet into the solver
+    public void load(RetrogradeSolver solver) {
+        Mapping mapping = this.mapping;
+        for (int needRed = 1; needRed <= mapping.scoreLimit; needRed++) {
+            for (int needBlack = 1; needBlack <= mapping.scoreLimit; needBlack++) {
+                if (solver.isSolved(needRed, needBlack)) continue;
+                solver.setLayer(needRed, needBlack, getLayer(mapping, needRed, needBlack));
+            }
+        }
+    }
+
+    // The scores of a layer by rank, or null if the layer is beyond the score limit of the file
+    public short[] getLayer(int needRed, int needBlack) {
+        return getLayer(mapping, needRed, needBlack);
+    }
+
+    private static short[] getLayer(Mapping mapping, int needRed, int needBlack) {
+        if (needRed > mapping.scoreLimit || needBlack > mapping.scoreLimit) return null;
+        int layer = (needRed - 1) * mapping.scoreLimit + needBlack - 1;
+        short[] scores = new short[mapping.layerSize];
+        for (int rank = 0; rank < mapping.layerSize; rank++) scores[rank] = (short) mapping.getScore(layer, rank);
+        return scores;
+    }
+
+    public static void write(String path, RetrogradeSolver solver, int scoreLimit) throws IOException {
+        write(path, solver, scoreLimit, true);
+    }
+
+    // Writes the layers of the solver up to the score limit, with or without packing the distances. The file is
+    // written to a temporary file and then moved to the next generation, so an interrupted write leaves the old file
+    // as it was. If the app has the tablebase file mapped, the probes move over to the new one
+    public static void write(String path, RetrogradeSolver solver, int scoreLimit, boolean packed) throws IOException {
+        int layerSize = PositionIndex.getLayerSize();
+        int layers = scoreLimit * scoreLimit;
+        int wdlLayerBytes = (layerSize + 3) / 4;
+        int blocksPerLayer = (layerSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteBuffer wdl = ByteBuffer.allocate(layers * wdlLayerBytes);
+        ByteArrayOutputStream distances = new ByteArrayOutputStream();
+        ByteBuffer directory = ByteBuffer.allocate(packed ? layers * blocksPerLayer * 4 : 0);
+        for (int layer = 0; layer < layers; layer++) {
+            short[] scores = solver.getLayer(layer / scoreLimit + 1, layer % scoreLimit + 1);
+            for (int rank = 0; rank < layerSize; rank++) {
+                int winner = RetrogradeSolver.getWinner(scores[rank]);
+                int value = (winner == RED) ? RED_WINS : (winner == BLACK) ? BLACK_WINS : DRAW;
+                int at = layer * wdlLayerBytes + rank / 4;
+                wdl.put(at, (byte) (wdl.get(at) | (value << ((rank % 4) * 2))));
+            }
+            for (int from = 0; from < layerSize; from += BLOCK_SIZE) {
+                int to = Math.min(layerSize, from + BLOCK_SIZE);
+                if (packed) {
+                    directory.putInt(directory.capacity() + distances.size());
+                    writeBlock(distances, scores, from, to);
+                } else {
+                    for (int rank = from; rank < to; rank++) {
+                        int distance = RetrogradeSolver.getDistance(scores[rank]);
+                        distances.write(distance >>> 8);
+                        distances.write(distance);
+                    }
+                }
+            }
+        }
+        distances.write(new byte[2], 0, 2); // So a packed read of 3 bytes never passes the end of the file
+        int distanceOffset = HEADER_SIZE + wdl.capacity();
+        long size = (long) distanceOffset + directory.capacity() + distances.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("A score limit of " + scoreLimit + " is too large for the tablebase file");
+
+        Path temp = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(Globals.bHeight).putInt(Globals.bWidth)
+                    .putInt(Globals.piece_amount).putInt(scoreLimit).putInt(layerSize).putInt(packed ? 1 : 0)
+                    .putInt(distanceOffset).putInt((int) size);
+            header.clear();
+            directory.clear();
+            for (ByteBuffer part : new ByteBuffer[]{header, wdl, directory, ByteBuffer.wrap(distances.toByteArray())}) {
+                while (part.hasRemaining()) channel.write(part);
+            }
+        }
+        synchronized (TablebaseFile.class) {
+            Path base = Paths.get(path).toAbsolutePath().normalize();
+            TreeMap<Integer, Path> files = getGenerations(base);
+            int generation = files.isEmpty() ? 0 : files.lastKey() + 1;
+            Path file = (generation == 0) ? base : Paths.get(base + "." + generation);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            if (instance != null && instance.path.equals(base)) instance.mapping = new Mapping(file);
+            deleteOldGenerations(base);
+        }
+    }
+
+    // Packs the distances of the won and lost positions in the range, relative to the smallest one
+    private static void writeBlock(ByteArrayOutputStream out, short[] scores, int from, int to) {
+        int base = Integer.MAX_VALUE;
+        int max = 0;
+        for (int rank = from; rank < to; rank++) {
+            if (scores[rank] == 0) continue;
+            base = Math.min(base, RetrogradeSolver.getDistance(scores[rank]));
+            max = Math.max(max, RetrogradeSolver.getDistance(scores[rank]));
+        }
+        if (base == Integer.MAX_VALUE) base = 0;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(0, max - base));
+        out.write(base >>> 8);
+        out.write(base);
+        out.write(bits);
+        byte[] data = new byte[(BLOCK_SIZE * bits + 7) / 8];
+        for (int rank = from; rank < to && bits > 0; rank++) {
+            int value = (scores[rank] == 0) ? 0 : RetrogradeSolver.getDistance(scores[rank]) - base;
+            int bit = (rank - from) * bits;
+            for (int i = bits - 1; i >= 0; i--, bit++) {
+                if ((value >>> i & 1) == 1) data[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+            }
+        }
+        out.write(data, 0, data.length);
+    }
+
+    // Exports the tablebase in the DB to the tablebase file, for the score limit given as the argument
+    public static void main(String[] args) throws SQLException, IOException {
+        int scoreLimit = Integer.parseInt(args[0]);
+        Tablebase tablebase = new Tablebase(TablebaseClient.getInstance());
+        if (!tablebase.isComplete(scoreLimit)) {
+            System.err.println("The tablebase is incomplete for a score limit of " + scoreLimit + ". Exiting");
+            System.exit(-1);
+        }
+        long startTime = System.currentTimeMillis();
+        RetrogradeSolver solver = new RetrogradeSolver();
+        tablebase.load(solver, scoreLimit);
+        write(Globals.TABLEBASE_PATH, solver, scoreLimit);
+        System.out.println("Tablebase exported to '" + Globals.TABLEBASE_PATH + "'. Time spent: " +
+                (System.currentTimeMillis() - startTime));
+    }
+}
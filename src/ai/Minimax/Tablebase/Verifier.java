@@ -0,0 +1,320 @@
+package ai.Minimax.Tablebase;
+
+import ai.Minimax.MinimaxPlay;
+import ai.Minimax.OffHeapMap;
+import ai.Minimax.Zobrist;
+import game.Logic;
+import game.Move;
+import game.MutableState;
+import game.State;
+import misc.Globals;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// Checks a solved table against itself before it is shipped. Every position in play is enumerated, and its score
+// must be the best score among its children one ply ahead, with the distance one longer: a win needs a child lost
+// by the opponent, a loss needs every child won by the opponent, and so on. The plays tables are keyed by Zobrist
+// hashes, so the key of every reachable position is derived again, and two positions with one key are reported as
+// a collision, as are keys in the table which no position has. Positions are checked in parallel chunks
+public class Verifier {
+    private static final int CHUNK = 4096; // Positions checked by one task
+    private static final int MAX_REPORTS = 20; // Problems printed per kind, the rest are only counted
+    private ForkJoinPool pool;
+    private AtomicLong mismatches = new AtomicLong();
+    private AtomicLong missing = new AtomicLong();
+    private long collisions;
+    private long unknownKeys;
+
+    public Verifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public Verifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Verifies a tablebase, like the solver, the tablebase file or the layers loaded from the DB
+    public boolean verify(ScoreTable table, int scoreLimit) {
+        reset();
+        long startTime = System.currentTimeMillis();
+        forEachPosition(scoreLimit, (state, rank) -> {
+            int score = table.getScore(state);
+            int expected = expectedScore(state, table::getScore);
+            if (score == Integer.MIN_VALUE) {
+                report(missing, "The position has no score", describe(state));
+            } else if (expected == Integer.MIN_VALUE) {
+                report(missing, "A child has no score", describe(state));
+            } else if (score != expected) {
+                report(mismatches, "Score " + score + " where the children give " + expected, describe(state));
+            }
+        });
+        return summary(System.currentTimeMillis() - startTime);
+    }
+
+    // Verifies a plays table of the lookup table minimax, including the stored moves and the keys. The positions are
+    // enumerated from the start by the rules of the game, one ply at a time, so this holds whether pieces can be lost
+    // or not, and only reachable positions are checked. The key of every position goes into an off heap map, with the
+    // position packed as the value, so two positions with one key are found as a collision
+    public boolean verifyPlays(String tableName, int scoreLimit) throws SQLException {
+        reset();
+        long startTime = System.currentTimeMillis();
+
+        // Stream the table into memory, so the children can be looked up
+        System.out.println("Reading table '" + tableName + "'");
+        OffHeapMap plays = new OffHeapMap(OffHeapMap.getDefaultBudget(), Globals.SPILL_PATH);
+        TablebaseClient client = TablebaseClient.getInstance();
+        synchronized (client) {
+            try (Statement stmt = client.getConnection().createStatement();
+                 ResultSet resultSet = stmt.executeQuery("select id, oldRow, oldCol, newRow, newCol, team, score from " +
+                         tableName)) {
+                while (resultSet.next()) {
+                    Move move = new Move(resultSet.getInt(2), resultSet.getInt(3), resultSet.getInt(4),
+                            resultSet.getInt(5), resultSet.getInt(6));
+                    plays.put(resultSet.getLong(1), new MinimaxPlay(move, resultSet.getInt(7), 0).pack());
+                }
+            }
+        }
+        System.out.println("Read " + plays.size() + " plays");
+
+        // Check the positions of a ply in parallel, then add their children which weren't seen yet as the next ply
+        System.out.println("Checking the plays of the reachable positions");
+        OffHeapMap positions = new OffHeapMap(OffHeapMap.getDefaultBudget(), Globals.SPILL_PATH);
+        OffHeapMap collided = new OffHeapMap(OffHeapMap.getDefaultBudget(), Globals.SPILL_PATH); // Packed positions
+        State start = new State(scoreLimit);
+        positions.put(Zobrist.hash(start), packState(start));
+        ArrayList<State> ply = new ArrayList<>();
+        ply.add(start);
+        while (!ply.isEmpty()) {
+            ArrayList<State> current = ply;
+            State[][] children = new State[current.size()][];
+            pool.submit(() -> IntStream.range(0, current.size()).parallel()
+                    .forEach(i -> children[i] = checkPlay(current.get(i), plays))).join();
+            ply = new ArrayList<>();
+            for (State[] stateChildren : children) {
+                for (State child : stateChildren) {
+                    if (Logic.gameOver(child)) continue;
+                    long key = Zobrist.hash(child);
+                    long packed = packState(child);
+                    long previous = positions.get(key, -1);
+                    if (previous == -1) {
+                        positions.put(key, packed);
+                        ply.add(child);
+                    } else if (previous != packed && !collided.containsKey(packed)) {
+                        collided.put(packed, 0);
+                        collisions++;
+                        if (collisions <= MAX_REPORTS) {
+                            System.out.println("Key " + key + " of " + describe(child) + " collides with another " +
+                                    "position");
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Reachable positions: " + positions.size());
+
+        // Every key in the table should belong to a reachable position
+        plays.forEach((key, packedPlay) -> {
+            if (positions.containsKey(key)) return;
+            unknownKeys++;
+            if (unknownKeys <= MAX_REPORTS) System.out.println("Key " + key + " belongs to no reachable position");
+        });
+        System.out.println("Collisions: " + collisions + ", keys of no position: " + unknownKeys);
+        return summary(System.currentTimeMillis() - startTime) && collisions == 0 && unknownKeys == 0;
+    }
+
+    // Checks the play of a position against its children one ply ahead, and returns the children
+    private State[] checkPlay(State state, OffHeapMap plays) {
+        ArrayList<Move> moves = state.getLegalMoves();
+        State[] children = new State[moves.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new State(state);
+            Logic.doTurn(moves.get(i), children[i]);
+            children[i].setMove(moves.get(i));
+        }
+        if (children.length == 0) return children;
+        long packedPlay = plays.get(Zobrist.hash(state), -1);
+        if (packedPlay == -1) {
+            report(missing, "The position has no play", describe(state));
+            return children;
+        }
+        MinimaxPlay play = MinimaxPlay.unpack(packedPlay);
+        int turn = state.getTurn();
+        int expected = (turn == RED) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        int moveScore = Integer.MAX_VALUE;
+        for (State child : children) {
+            int score = childScore(child, plays);
+            if (score == Integer.MIN_VALUE) {
+                report(missing, "A child has no play", describe(state));
+                return children;
+            }
+            expected = (turn == RED) ? Math.max(expected, score) : Math.min(expected, score);
+            if (child.getMove().equals(play.move)) moveScore = score;
+        }
+        if (play.score != expected) {
+            report(mismatches, "Score " + play.score + " where the children give " + expected, describe(state));
+        } else if (moveScore != play.score) {
+            report(mismatches, "Move " + describe(play.move) + " scores " + moveScore + " instead of " + play.score,
+                    describe(state));
+        }
+        return children;
+    }
+
+    // The score of the child one ply longer, or Integer.MIN_VALUE if it has no play
+    private static int childScore(State child, OffHeapMap plays) {
+        int score;
+        if (Logic.gameOver(child)) {
+            score = (Logic.getWinner(child) == RED) ? 2000 : -2000;
+        } else {
+            long packedPlay = plays.get(Zobrist.hash(child), -1);
+            if (packedPlay == -1) return Integer.MIN_VALUE;
+            score = MinimaxPlay.unpack(packedPlay).score;
+        }
+        if (score > 1000) score--;
+        else if (score < -1000) score++;
+        return score;
+    }
+
+    // Packs everything which tells positions apart: the board in 2 bits per tile, the turn, the scores and the
+    // unplaced pieces, which no longer follow from the board when pieces can be lost
+    private static long packState(State state) {
+        long packed = 0;
+        for (int[] row : state.getBoard()) {
+            for (int tile : row) packed = packed << 2 | tile;
+        }
+        packed = packed << 2 | state.getTurn();
+        packed = packed << 8 | state.getScore(RED);
+        packed = packed << 8 | state.getScore(BLACK);
+        packed = packed << 4 | state.getUnplaced(RED);
+        return packed << 4 | state.getUnplaced(BLACK);
+    }
+
+    private interface PositionBody {
+        void accept(MutableState state, int rank);
+    }
+
+    private interface ScoreLookup {
+        int getScore(MutableState state);
+    }
+
+    // Runs the body for every position in play up to the score limit, the ranges of each layer in parallel
+    private void forEachPosition(int scoreLimit, PositionBody body) {
+        int layerSize = PositionIndex.getLayerSize();
+        int chunks = (layerSize + CHUNK - 1) / CHUNK;
+        for (int needRed = 1; needRed <= scoreLimit; needRed++) {
+            for (int needBlack = 1; needBlack <= scoreLimit; needBlack++) {
+                int redScore = scoreLimit - needRed;
+                int blackScore = scoreLimit - needBlack;
+                pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                    MutableState state = new MutableState();
+                    for (int rank = chunk * CHUNK; rank < Math.min(layerSize, (chunk + 1) * CHUNK); rank++) {
+                        PositionIndex.unrank(rank, state, redScore, blackScore, scoreLimit);
+                        if (state.gameOver() || !state.hasMoves(state.getTurn())) continue;
+                        body.accept(state, rank);
+                    }
+                })).join();
+            }
+        }
+    }
+
+    // The best score among the children for the player to move, with the distances one longer, or
+    // Integer.MIN_VALUE if the lookup is missing a child
+    private static int expectedScore(MutableState state, ScoreLookup lookup) {
+        int turn = state.getTurn();
+        int[] moves = new int[MutableState.MAX_MOVES];
+        int count = state.generateMoves(turn, moves);
+        int best = (turn == RED) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            int score = (state.gameOver()) ? ((state.getWinner() == RED) ? 2000 : -2000) : lookup.getScore(state);
+            state.unmakeMove();
+            if (score == Integer.MIN_VALUE) return Integer.MIN_VALUE;
+            if (score > 1000) score--;
+            else if (score < -1000) score++;
+            best = (turn == RED) ? Math.max(best, score) : Math.min(best, score);
+        }
+        return best;
+    }
+
+    private void report(AtomicLong counter, String problem, String position) {
+        if (counter.incrementAndGet() <= MAX_REPORTS) System.out.println(problem + ": " + position);
+    }
+
+    private void reset() {
+        mismatches.set(0);
+        missing.set(0);
+        collisions = 0;
+        unknownKeys = 0;
+    }
+
+    private boolean summary(long time) {
+        System.out.println("Mismatches: " + mismatches.get() + ", positions missing a score or play for them or a child: " +
+                missing.get() + ". Time spent: " + time);
+        return mismatches.get() == 0 && missing.get() == 0;
+    }
+
+    // The position as the rows of the board from the top, followed by the scores and the player to move
+    private static String describe(MutableState state) {
+        StringBuilder board = new StringBuilder();
+        for (int cell = 0; cell < MutableState.CELLS; cell++) {
+            if (cell > 0 && cell % Globals.bWidth == 0) board.append('/');
+            board.append(state.getBoardEntry(cell));
+        }
+        return board + " red " + state.getScore(RED) + " black " + state.getScore(BLACK) + " turn " +
+                ((state.getTurn() == RED) ? "RED" : "BLACK");
+    }
+
+    private static String describe(State state) {
+        StringBuilder board = new StringBuilder();
+        for (int[] row : state.getBoard()) {
+            if (board.length() > 0) board.append('/');
+            for (int tile : row) board.append(tile);
+        }
+        return board + " red " + state.getScore(RED) + " black " + state.getScore(BLACK) + " turn " +
+                ((state.getTurn() == RED) ? "RED" : "BLACK") + " unplaced " + state.getUnplaced(RED) + " " +
+                state.getUnplaced(BLACK);
+    }
+
+    private static String describe(Move move) {
+        return "(" + move.oldRow + ", " + move.oldCol + ") to (" + move.newRow + ", " + move.newCol + ")";
+    }
+
+    // Verifies the tablebase for the score limit given as the first argument. The tablebase file is used if it
+    // covers the score limit, else the layers in the DB. With "plays" as the second argument the plays table of the
+    // score limit is verified instead
+    public static void main(String[] args) throws SQLException {
+        Zobrist.initialize();
+        int scoreLimit = Integer.parseInt(args[0]);
+        Verifier verifier = new Verifier();
+        boolean valid;
+        if (args.length > 1 && args[1].equals("plays")) {
+            valid = verifier.verifyPlays("plays_" + scoreLimit, scoreLimit);
+        } else {
+            TablebaseFile file = TablebaseFile.getInstance();
+            if (file != null && file.getScoreLimit() >= scoreLimit) {
+                System.out.println("Verifying '" + file.getFile() + "'");
+                valid = verifier.verify(file, scoreLimit);
+            } else {
+                Tablebase tablebase = new Tablebase(TablebaseClient.getInstance());
+                if (!tablebase.isComplete(scoreLimit)) {
+                    System.err.println("The tablebase is incomplete for a score limit of " + scoreLimit + ". Exiting");
+                    System.exit(-1);
+                }
+                System.out.println("Verifying the tablebase in the DB");
+                RetrogradeSolver solver = new RetrogradeSolver();
+                tablebase.load(solver, scoreLimit);
+                valid = verifier.verify(solver, scoreLimit);
+            }
+        }
+        System.out.println(valid ? "The table is consistent" : "The table is NOT consistent");
+        if (!valid) System.exit(-1);
+    }
+}
@@ -1,9 +1,15 @@
 package ai.Minimax;
 
+import game.Move;
+import game.MutableState;
+import game.State;
 import misc.Globals;
 
 import java.util.Random;
 
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
 public class Zobrist {
     public static long[][][] board;
     public static long[] turn;
@@ -40,4 +46,53 @@ public class Zobrist {
             blackPoints[i] = (long) (r.nextDouble() * range);
         }
     }
+
+    // Computes the key of a state from scratch, based on the board, the turn and the scores
+    public static long hash(State state) {
+        long hash = 0L;
+        int[][] board = state.getBoard();
+        for (int i = 0; i < board.length; i++) {
+            for (int j = 0; j < board[i].length; j++) {
+                if (board[i][j] != 0) {
+                    int k = board[i][j]; // team occupying spot
+                    hash = hash ^ Zobrist.board[i][j][k];
+                }
+            }
+        }
+        hash = hash ^ turn[state.getTurn()];
+        hash = hash ^ redPoints[state.getScore(RED)];
+        hash = hash ^ blackPoints[state.getScore(BLACK)];
+        return hash;
+    }
+
+    // Same key as hash(State), for a MutableState
+    public static long hash(MutableState state) {
+        long hash = 0L;
+        for (int i = 0; i < MutableState.CELLS; i++) {
+            int k = state.getBoardEntry(i);
+            if (k != 0) hash ^= board[i / Globals.bWidth][i % Globals.bWidth][k];
+        }
+        hash ^= turn[state.getTurn()];
+        hash ^= redPoints[state.getScore(RED)];
+        hash ^= blackPoints[state.getScore(BLACK)];
+        return hash;
+    }
+
+    // Updates the key of the parent state with a move, instead of hashing the resulting child state from scratch
+    public static long update(long key, State parent, Move m, State child) {
+        if (m.oldRow != -1 && m.oldCol != -1) key ^= board[m.oldRow][m.oldCol][m.team];
+        if (m.newRow != -1 && m.newCol != -1) {
+            int captured = parent.getBoard()[m.newRow][m.newCol];
+            if (captured != 0) key ^= board[m.newRow][m.newCol][captured];
+            key ^= board[m.newRow][m.newCol][m.team];
+        }
+        if (parent.getTurn() != child.getTurn()) key ^= turn[parent.getTurn()] ^ turn[child.getTurn()];
+        if (parent.getScore(RED) != child.getScore(RED)) {
+            key ^= redPoints[parent.getScore(RED)] ^ redPoints[child.getScore(RED)];
+        }
+        if (parent.getScore(BLACK) != child.getScore(BLACK)) {
+            key ^= blackPoints[parent.getScore(BLACK)] ^ blackPoints[child.getScore(BLACK)];
+        }
+        return key;
+    }
 }
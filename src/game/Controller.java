@@ -3,6 +3,12 @@ package game;
 import ai.AI;
 import ai.MCTS.MCTS;
 import ai.Minimax.*;
+import ai.Minimax.Tablebase.MoveScores;
+import ai.Minimax.Tablebase.ScoreTable;
+import ai.Minimax.Tablebase.ShardedTablebase;
+import ai.Minimax.Tablebase.Tablebase;
+import ai.Minimax.Tablebase.TablebaseClient;
+import ai.Minimax.Tablebase.TablebaseFile;
 import gui.*;
 import gui.board.BoardPiece;
 import gui.board.BoardTile;
@@ -25,6 +31,8 @@ import static misc.Globals.*;
 
 public class Controller {
     public Connection dbConnection;
+    private ScoreTable tablebase; // Used instead of the plays tables, unless pieces can be lost
+    private ShardedTablebase shards; // The layers of the DB tablebase this game is in, shared with the table AIs
     private int mode;
     private int playerRedInstance;
     private int playerBlackInstance;
@@ -66,6 +74,7 @@ public class Controller {
         this.endGamePopup = false;
         this.curHighLights = new ArrayList<>();
         this.previousStates = new ArrayList<>();
+        this.shards = new ShardedTablebase(TablebaseClient.getInstance());
 
         PlayPane playPane = new PlayPane(this);
         primaryStage.setScene(new Scene(playPane,
@@ -77,7 +86,7 @@ public class Controller {
         if (playerRedInstance == MINIMAX) {
             aiRed = new Minimax(RED, redTime);
         } else if (playerRedInstance == LOOKUP_TABLE) {
-            aiRed = new LookupTableMinimax(RED, state, overwriteDB);
+            aiRed = new LookupTableMinimax(RED, state, overwriteDB, shards);
         } else if (playerRedInstance == MONTE_CARLO) {
             aiRed = new MCTS(state, RED, redTime);
         }
@@ -87,10 +96,12 @@ public class Controller {
             if (playerRedInstance == LOOKUP_TABLE) {
                 overwriteDB = false;
             }
-            aiBlack = new LookupTableMinimax(BLACK, state, overwriteDB);
+            aiBlack = new LookupTableMinimax(BLACK, state, overwriteDB, shards);
         } else if (playerBlackInstance == MONTE_CARLO) {
             aiBlack = new MCTS(state, BLACK, blackTime);
         }
+        if (aiRed != null) aiRed.setPonder(PONDER);
+        if (aiBlack != null) aiBlack.setPonder(PONDER);
 
         // Fetch all gui elements that invoke something game-related
         startAIButton = navPane.getStartAIButton();
@@ -167,12 +178,6 @@ public class Controller {
                     helpHumanBox.setSelected(false);
                 }
             } else {
-                try {
-                    dbConnection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-
                 helpHumanBox.setSelected(false);
                 highlightBestPieces(false);
             }
@@ -291,33 +296,44 @@ public class Controller {
     }
 
     // Connects to the database. If the table in question is incomplete or missing, show a pane to allow creating the DB on the spot.
+    // The tablebase file is used without connecting, when it covers the score limit
     public boolean connect(int scoreLimit) {
-        String JDBC_URL = Globals.JDBC_URL;
-        System.out.println("Connecting to database. This might take some time");
-        try {
-            dbConnection = DriverManager.getConnection(
-                    JDBC_URL);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (!Globals.losePieces) {
+            TablebaseFile file = TablebaseFile.getInstance();
+            if (file != null && file.getScoreLimit() >= scoreLimit) {
+                tablebase = file;
+                return true;
+            }
         }
-        System.out.println("Connection successful");
-
-        String tableName = "plays_" + scoreLimit;
-        long key = new Node(state).getHashCode();
+        TablebaseClient client = TablebaseClient.getInstance();
         boolean error = false;
-        // Try query to check for table existance
-        try {
-            Statement statement = dbConnection.createStatement();
-            ResultSet resultSet = statement.executeQuery("select oldRow, oldCol, newRow, newCol, team, score from "
-                    + tableName + " where id=" + key);
-            if (!resultSet.next()) {
-                System.err.println("The database table '" + tableName + "' is incomplete.");
+        if (!Globals.losePieces) {
+            try {
+                dbConnection = client.getConnection();
+                Tablebase dbTablebase = new Tablebase(client);
+                tablebase = shards;
+                if (!dbTablebase.isComplete(scoreLimit)) {
+                    System.err.println("The tablebase is incomplete for a score limit of " + scoreLimit + ".");
+                    error = true;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                error = true;
+            }
+        } else {
+            String tableName = "plays_" + scoreLimit;
+            long key = new Node(state).getHashCode();
+            // Try query to check for table existance
+            try {
+                dbConnection = client.getConnection();
+                if (client.queryPlay(tableName, key) == null) {
+                    System.err.println("The database table '" + tableName + "' is incomplete.");
+                    error = true;
+                }
+            } catch (SQLException e) {
+                System.out.println("Table '" + tableName + "' does not exist in the database!");
                 error = true;
             }
-            statement.close();
-        } catch (SQLException e) {
-            System.out.println("Table '" + tableName + "' does not exist in the database!");
-            error = true;
         }
         if (error) {
             showOverwritePane();
@@ -326,24 +342,29 @@ public class Controller {
         return true;
     }
 
+    // Whether the plays can be looked up already. The tablebase file is used without a connection to the DB
+    public boolean isConnected() {
+        if (!Globals.losePieces) return tablebase != null;
+        try {
+            return dbConnection != null && !dbConnection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
     // Fetches the best play corresponding to the input node
     public MinimaxPlay queryPlay(Node n) {
         MinimaxPlay play = null;
-        String tableName = "plays_" + state.getScoreLimit();
-        Long key = n.getHashCode();
-        try {
-            Statement statement = dbConnection.createStatement();
-            ResultSet resultSet = statement.executeQuery("select oldRow, oldCol, newRow, newCol, team, score from "
-                    + tableName + " where id=" + key);
-            while (resultSet.next()) {
-                Move move = new Move(resultSet.getInt(1), resultSet.getInt(2),
-                        resultSet.getInt(3), resultSet.getInt(4), resultSet.getInt(5));
-                int score = resultSet.getInt(6);
-                play = new MinimaxPlay(move, score, 0);
+        if (!Globals.losePieces) {
+            play = tablebase.getBestPlay(n.getState());
+        } else {
+            String tableName = "plays_" + state.getScoreLimit();
+            Long key = n.getHashCode();
+            try {
+                play = TablebaseClient.getInstance().queryPlay(tableName, key);
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-            statement.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         if (play == null) {
             System.err.println("PLAY DOES NOT EXIST IN DATABASE!");
@@ -351,6 +372,27 @@ public class Controller {
         return play;
     }
 
+    // Fetches the scores of all moves from the state. The tablebase probes them at once, the plays tables one by one
+    public MoveScores queryMoveScores(State state) {
+        if (!Globals.losePieces) return tablebase.getMoveScores(state);
+        ArrayList<Move> moves = new ArrayList<>();
+        ArrayList<Node> children = new Node(state).getChildren();
+        int[] scores = new int[children.size()];
+        boolean[] terminal = new boolean[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            State childState = children.get(i).getState();
+            moves.add(childState.getMove());
+            if (Logic.gameOver(childState)) {
+                terminal[i] = true;
+                scores[i] = (Logic.getWinner(childState) == RED) ? 2000 : -2000;
+            } else {
+                MinimaxPlay play = queryPlay(children.get(i));
+                if (play != null) scores[i] = play.score;
+            }
+        }
+        return new MoveScores(state.getTurn(), moves, scores, terminal);
+    }
+
     // Outputs a string which is the amount of turns to a terminal node, based on a score from the database entry
     public String turnsToTerminal(int score) {
         if (score == 0) {
@@ -385,12 +427,11 @@ public class Controller {
         if (highlight) curHighLights = Logic.legalMovesFromPiece(row,
                 col, team, state);
         ArrayList<Move> bestPlays = null;
-        if (highlight && helpHumanBox.isSelected()) {
-            bestPlays = bestPlays(new Node(state));
-        }
         ArrayList<String> turnsToTerminalList = null;
         if (highlight && helpHumanBox.isSelected()) {
-            turnsToTerminalList = getScores(curHighLights);
+            MoveScores moveScores = queryMoveScores(state);
+            bestPlays = moveScores.getBestMoves();
+            turnsToTerminalList = getScores(curHighLights, moveScores);
         }
         BoardTile[][] tiles = playArea.getBoard().getTiles();
         for (int i = 0; i < curHighLights.size(); i++) {
@@ -413,25 +454,10 @@ public class Controller {
         }
     }
 
-    // Outputs a list of the best plays from a given node. Checks through the children of a node to find the ones
-    // which have the least amount of turns to terminal for win, or most for loss.
+    // Outputs a list of the best plays from a given node. These are the moves to the children which have the least
+    // amount of turns to terminal for win, or most for loss.
     public ArrayList<Move> bestPlays(Node n) {
-        ArrayList<Move> bestPlays = new ArrayList<>();
-        MinimaxPlay bestPlay = queryPlay(n);
-        int bestScore = 0;
-        if (!Logic.gameOver(n.getNextNode(bestPlay.move).getState())) {
-            bestScore = queryPlay(n.getNextNode(bestPlay.move)).score;
-        }
-        for (Node child : n.getChildren()) {
-            Move m = child.getState().getMove();
-            State state = n.getNextNode(m).getState();
-            if (Logic.gameOver(state)) {
-                if (Logic.getWinner(state) == m.team) bestPlays.add(m);
-            } else if (queryPlay(child).score == bestScore) {
-                bestPlays.add(m);
-            }
-        }
-        return bestPlays;
+        return queryMoveScores(n.getState()).getBestMoves();
     }
 
     // Highlights the best pieces found above
@@ -470,13 +496,12 @@ public class Controller {
     }
 
     // Adds sting scores to all moves from a piece
-    private ArrayList<String> getScores(ArrayList<Move> curHighLights) {
+    private ArrayList<String> getScores(ArrayList<Move> curHighLights, MoveScores moveScores) {
         ArrayList<String> turnsToTerminalList = new ArrayList<>();
         for (Move m : curHighLights) {
-            Node n = new Node(state).getNextNode(m);
-            if (Logic.gameOver(n.getState())) {
+            if (moveScores.isTerminal(m)) {
                 turnsToTerminalList.add("0");
-            } else turnsToTerminalList.add(turnsToTerminal(queryPlay(n).score));
+            } else turnsToTerminalList.add(turnsToTerminal(moveScores.getScore(m)));
         }
         return turnsToTerminalList;
     }
@@ -515,7 +540,7 @@ public class Controller {
 
     // Builds the DB
     public void buildDB() {
-        LookupTableMinimax lt = new LookupTableMinimax(RED, state, true);
+        LookupTableMinimax lt = new LookupTableMinimax(RED, state, true, shards);
     }
 
     // Sets the mode based on the red and black player types
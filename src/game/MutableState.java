@@ -0,0 +1,267 @@
+package game;
+
+import misc.Globals;
+
+import static misc.Globals.BLACK;
+import static misc.Globals.RED;
+
+// A compact and mutable version of State, for searches that play and take back a lot of moves.
+// The board is a flat array and moves are encoded as ints, so nothing is allocated while searching.
+// A move is encoded as from * (CELLS + 1) + to, where the square OFF_BOARD is an unplaced piece or a point
+public class MutableState {
+    public static final int CELLS = Globals.bHeight * Globals.bWidth;
+    public static final int OFF_BOARD = CELLS;
+    public static final int MAX_MOVES = 32; // Upper bound of legal moves in a position
+    private static final int MAX_UNDO = 1024;
+    private int[] board = new int[CELLS];
+    private int turn;
+    private int redScore;
+    private int blackScore;
+    private int unplacedRed;
+    private int unplacedBlack;
+    private int scoreLimit;
+    private int lastMover; // Team which made the last move, needed to find the winner of a locked board
+    private int[] undo = new int[MAX_UNDO * 3];
+    private int undoSize = 0;
+    private int[] scratch = new int[MAX_MOVES];
+
+    public MutableState() {
+    }
+
+    public MutableState(State state) {
+        set(state);
+    }
+
+    // Copies a state into this one, without allocating
+    public void set(State state) {
+        int[][] b = state.getBoard();
+        for (int i = 0; i < CELLS; i++) {
+            board[i] = b[i / Globals.bWidth][i % Globals.bWidth];
+        }
+        turn = state.getTurn();
+        redScore = state.getScore(RED);
+        blackScore = state.getScore(BLACK);
+        unplacedRed = state.getUnplaced(RED);
+        unplacedBlack = state.getUnplaced(BLACK);
+        scoreLimit = state.getScoreLimit();
+        lastMover = (state.getMove() == null) ? 0 : state.getMove().team;
+        undoSize = 0;
+    }
+
+    // Sets up a position from a board code, see getBoardCode. The unplaced pieces are the ones not on the board
+    public void set(int boardCode, int turn, int redScore, int blackScore, int scoreLimit) {
+        int onBoardRed = 0;
+        int onBoardBlack = 0;
+        for (int i = 0; i < CELLS; i++) {
+            board[i] = boardCode % 3;
+            boardCode /= 3;
+            if (board[i] == RED) onBoardRed++;
+            else if (board[i] == BLACK) onBoardBlack++;
+        }
+        this.turn = turn;
+        this.redScore = redScore;
+        this.blackScore = blackScore;
+        this.scoreLimit = scoreLimit;
+        unplacedRed = Globals.piece_amount - onBoardRed;
+        unplacedBlack = Globals.piece_amount - onBoardBlack;
+        lastMover = 0;
+        undoSize = 0;
+    }
+
+    // The board as a number in base 3, with the first cell as the least significant digit
+    public int getBoardCode() {
+        int code = 0;
+        for (int i = CELLS - 1; i >= 0; i--) {
+            code = code * 3 + board[i];
+        }
+        return code;
+    }
+
+    public static int encode(Move m) {
+        int from = (m.oldRow == -1) ? OFF_BOARD : m.oldRow * Globals.bWidth + m.oldCol;
+        int to = (m.newRow == -1) ? OFF_BOARD : m.newRow * Globals.bWidth + m.newCol;
+        return from * (CELLS + 1) + to;
+    }
+
+    public static Move decode(int move, int team) {
+        int from = move / (CELLS + 1);
+        int to = move % (CELLS + 1);
+        return new Move((from == OFF_BOARD) ? -1 : from / Globals.bWidth, (from == OFF_BOARD) ? -1 : from % Globals.bWidth,
+                (to == OFF_BOARD) ? -1 : to / Globals.bWidth, (to == OFF_BOARD) ? -1 : to % Globals.bWidth, team);
+    }
+
+    public static int from(int move) {
+        return move / (CELLS + 1);
+    }
+
+    public static int to(int move) {
+        return move % (CELLS + 1);
+    }
+
+    // Writes the legal moves of a team into the array, in the same order as Logic.legalMoves. Returns the amount
+    public int generateMoves(int team, int[] moves) {
+        int count = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (board[cell] == team) count = generatePieceMoves(cell, team, moves, count);
+        }
+        if (getUnplaced(team) > 0) count = generatePieceMoves(OFF_BOARD, team, moves, count);
+        return count;
+    }
+
+    private int generatePieceMoves(int from, int team, int[] moves, int count) {
+        int width = Globals.bWidth;
+        int maxRow = Globals.bHeight - 1;
+        int dir = (team == RED) ? -1 : 1;
+        int opponent = (team == RED) ? BLACK : RED;
+        int base = from * (CELLS + 1);
+        // INITIAL MOVE
+        if (from == OFF_BOARD) {
+            int row = (team == RED) ? maxRow : 0;
+            for (int col = 0; col < width; col++) {
+                if (board[row * width + col] == 0) moves[count++] = base + row * width + col;
+            }
+            return count;
+        }
+        int row = from / width;
+        int col = from % width;
+        // POINT GAINED
+        if (row == ((team == RED) ? 0 : maxRow)) {
+            moves[count++] = base + OFF_BOARD;
+            return count;
+        }
+        int next = (row + dir) * width;
+        // DIAGONAL MOVE
+        if (col + 1 < width && board[next + col + 1] == 0) moves[count++] = base + next + col + 1;
+        if (col - 1 >= 0 && board[next + col - 1] == 0) moves[count++] = base + next + col - 1;
+        // ATTACK MOVE
+        if (board[next + col] == opponent) moves[count++] = base + next + col;
+        // JUMP MOVE
+        int jump = 1;
+        while (board[(row + dir * jump) * width + col] == opponent) {
+            jump++;
+            int jumpRow = row + dir * jump;
+            if (jumpRow < 0 || jumpRow > maxRow) {
+                moves[count++] = base + OFF_BOARD;
+                break;
+            }
+            if (board[jumpRow * width + col] == 0) {
+                moves[count++] = base + jumpRow * width + col;
+                break;
+            }
+        }
+        return count;
+    }
+
+    public boolean hasMoves(int team) {
+        return generateMoves(team, scratch) > 0;
+    }
+
+    // Plays a move for the player to move, the same way as Logic.doTurn
+    public void makeMove(int move) {
+        int team = turn;
+        int from = from(move);
+        int to = to(move);
+        int captured = 0;
+        if (to == OFF_BOARD) {
+            if (team == RED) redScore++;
+            else blackScore++;
+            if (!Globals.losePieces) addUnplaced(team, 1);
+        } else {
+            captured = board[to];
+            if (captured != 0) addUnplaced(captured, 1);
+            board[to] = team;
+        }
+        if (from == OFF_BOARD) addUnplaced(team, -1);
+        else board[from] = 0;
+        undo[undoSize++] = move;
+        undo[undoSize++] = captured;
+        undo[undoSize++] = lastMover;
+        lastMover = team;
+        // Change turn, and pass it back if the new player has no move
+        turn = (team == RED) ? BLACK : RED;
+        if (!hasMoves(turn)) turn = team;
+    }
+
+    // Takes back the last move played
+    public void unmakeMove() {
+        int prevLastMover = undo[--undoSize];
+        int captured = undo[--undoSize];
+        int move = undo[--undoSize];
+        int team = lastMover;
+        int from = from(move);
+        int to = to(move);
+        if (from == OFF_BOARD) addUnplaced(team, 1);
+        else board[from] = team;
+        if (to == OFF_BOARD) {
+            if (team == RED) redScore--;
+            else blackScore--;
+            if (!Globals.losePieces) addUnplaced(team, -1);
+        } else {
+            board[to] = captured;
+            if (captured != 0) addUnplaced(captured, -1);
+        }
+        turn = team;
+        lastMover = prevLastMover;
+    }
+
+    private void addUnplaced(int team, int amount) {
+        if (team == RED) unplacedRed += amount;
+        else unplacedBlack += amount;
+    }
+
+    public boolean gameOver() {
+        return redScore == scoreLimit || blackScore == scoreLimit || (!hasMoves(RED) && !hasMoves(BLACK));
+    }
+
+    // Finds the winner, granted that the game is over. A locked board is lost by the player who locked it
+    public int getWinner() {
+        if (!gameOver()) return 0;
+        if (redScore != scoreLimit && blackScore != scoreLimit) return (lastMover == RED) ? BLACK : RED;
+        return lastMover;
+    }
+
+    // Same value as State.getMaterial, seen from the player to move
+    public int getMaterial() {
+        int width = Globals.bWidth;
+        int score = generateMoves(turn, scratch) * 2;
+        // Bonus for being in front of opponent
+        for (int cell = width; cell < CELLS; cell++) {
+            if (board[cell] == RED && board[cell - width] == BLACK) score += 2;
+        }
+        // Win cycle bonus, for pieces in the middle column
+        int red = cycleBonus(RED, 0, 1, 2);
+        int black = cycleBonus(BLACK, 3, 2, 1);
+        score += (turn == RED) ? red - black : black - red;
+        return score;
+    }
+
+    private int cycleBonus(int team, int topRow, int midRow, int botRow) {
+        boolean top = board[topRow * Globals.bWidth + 1] == team;
+        boolean mid = board[midRow * Globals.bWidth + 1] == team;
+        boolean bot = board[botRow * Globals.bWidth + 1] == team;
+        int bonus = 0;
+        if (mid && (top || bot)) bonus += 20;
+        if (top && mid && bot) bonus += 100;
+        return bonus;
+    }
+
+    public int getBoardEntry(int cell) {
+        return board[cell];
+    }
+
+    public int getTurn() {
+        return turn;
+    }
+
+    public int getScore(int team) {
+        return (team == RED) ? redScore : blackScore;
+    }
+
+    public int getUnplaced(int team) {
+        return (team == RED) ? unplacedRed : unplacedBlack;
+    }
+
+    public int getScoreLimit() {
+        return scoreLimit;
+    }
+}
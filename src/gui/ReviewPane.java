@@ -25,7 +25,6 @@ import javafx.scene.text.Font;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 
 import static misc.Globals.BLACK;
@@ -33,17 +32,9 @@ import static misc.Globals.RED;
 
 public class ReviewPane extends VBox {
     private ListView<HBox> lw;
-    private boolean connected;
 
     public ReviewPane(Stage primaryStage, Controller currCont) {
-        try {
-            if (currCont.dbConnection == null || currCont.dbConnection.isClosed()) {
-                currCont.connect(currCont.getScoreLimit());
-                connected = true;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        if (!currCont.isConnected()) currCont.connect(currCont.getScoreLimit());
         HBox bottomBox = new HBox(10);
         VBox.setMargin(bottomBox, new Insets(10));
         bottomBox.setAlignment(Pos.BOTTOM_RIGHT);
@@ -56,13 +47,6 @@ public class ReviewPane extends VBox {
         cancel.setOnMouseClicked(event -> {
             Stage stage = (Stage) getScene().getWindow();
             stage.close();
-            if (connected) {
-                try {
-                    currCont.dbConnection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
             if (Logic.gameOver(currCont.getState())) {
                 Stage newStage = new Stage();
                 newStage.setScene(new Scene(new EndGamePane(primaryStage, Logic.getWinner(currCont.getState()),
@@ -29,5 +29,10 @@ public class Globals {
 
     // MISC
     public static final boolean CUSTOMIZABLE = false; // For debug
+    public static final boolean PONDER = false; // AI's keep searching on the opponent's time. Skews AI vs AI games
     public static final String JDBC_URL = "jdbc:derby:altDB;create=true";
+    public static final String TABLEBASE_PATH = "tablebase.bin"; // Used instead of the DB when it exists
+    public static final String CHECKPOINT_PATH = "tablebase_checkpoint"; // Layers of a build which hasn't finished
+    public static final long TABLE_MEMORY_BUDGET = 1L << 30; // Most bytes of direct memory per search table
+    public static final String SPILL_PATH = "table_spill"; // Search tables above the budget are mapped from here
 }